@@ -0,0 +1,30 @@
+package com.gt22.boxer.bench;
+
+import com.gt22.boxer.FacialDetector;
+
+import java.nio.file.Paths;
+
+/**
+ * Engine selection for benchmarks, dnn model is given by <code>boxer.dnn.config</code> and <code>boxer.dnn.model</code> properties
+ * (gradle -PdnnConfig and -PdnnModel), input size by <code>boxer.dnn.input</code>
+ */
+class BenchEngines {
+	static boolean isAvailable(String engine) {
+		return engine.equals("cascade") || System.getProperty("boxer.dnn.config") != null && System.getProperty("boxer.dnn.model") != null;
+	}
+
+	static void use(String engine) {
+		switch (engine) {
+			case "cascade":
+				FacialDetector.useCascade();
+				break;
+			case "dnn":
+				if (!isAvailable(engine)) throw new IllegalStateException("Dnn engine needs boxer.dnn.config and boxer.dnn.model properties");
+				FacialDetector.useDnn(Paths.get(System.getProperty("boxer.dnn.config")), Paths.get(System.getProperty("boxer.dnn.model")),
+					Integer.getInteger("boxer.dnn.input", 300));
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown engine " + engine);
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package com.gt22.boxer.bench;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Images for benchmarks.
+ * Synthetic images are deterministic: noisy background with schematic faces (light oval, dark eyes, brows and mouth) laid out in grid,
+ * which is close enough for cascade to fire. Bundled images are box artwork from resources
+ */
+class BenchImages {
+	private static final long SEED = 42;
+
+	static BufferedImage synthetic(String resolution, int faces) {
+		int[] size = parseResolution(resolution);
+		BufferedImage ret = new BufferedImage(size[0], size[1], BufferedImage.TYPE_3BYTE_BGR);
+		Graphics2D g = ret.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		Random rnd = new Random(SEED);
+		g.setColor(new Color(90, 100, 110));
+		g.fillRect(0, 0, size[0], size[1]);
+		int blobs = size[0] * size[1] / 2000;
+		for (int i = 0; i < blobs; i++) {
+			int c = 40 + rnd.nextInt(160);
+			g.setColor(new Color(c, c + rnd.nextInt(40), c));
+			int s = 4 + rnd.nextInt(30);
+			g.fillRect(rnd.nextInt(size[0]), rnd.nextInt(size[1]), s, s);
+		}
+		int[] rects = faceRects(size[0], size[1], faces);
+		for (int i = 0; i < rects.length; i += 4) {
+			drawFace(g, rects[i], rects[i + 1], rects[i + 2]);
+		}
+		g.dispose();
+		return ret;
+	}
+
+	/**
+	 * @return face rects laid out in grid, packed as x, y, width, height
+	 */
+	static int[] faceRects(int width, int height, int faces) {
+		int[] ret = new int[faces * 4];
+		if (faces == 0) return ret;
+		int cols = (int) Math.ceil(Math.sqrt(faces));
+		int rows = (faces + cols - 1) / cols;
+		int cell = Math.min(width / cols, height / rows);
+		int size = cell * 3 / 5;
+		for (int i = 0; i < faces; i++) {
+			ret[i * 4] = (i % cols) * cell + (cell - size) / 2;
+			ret[i * 4 + 1] = (i / cols) * cell + (cell - size) / 2;
+			ret[i * 4 + 2] = size;
+			ret[i * 4 + 3] = size;
+		}
+		return ret;
+	}
+
+	static BufferedImage bundled(String name) throws IOException {
+		try (InputStream in = BenchImages.class.getResourceAsStream("/boxes/" + name + ".png")) {
+			return ImageIO.read(in);
+		}
+	}
+
+	static int[] parseResolution(String resolution) {
+		String[] parts = resolution.split("x");
+		return new int[]{Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+	}
+
+	private static void drawFace(Graphics2D g, int x, int y, int size) {
+		g.setColor(new Color(225, 190, 165));
+		g.fillOval(x + size / 10, y, size * 4 / 5, size);
+		g.setColor(new Color(40, 30, 25));
+		int eye = size / 6;
+		g.fillRect(x + size / 4, y + size / 4, eye, size / 25 + 1); //Brows
+		g.fillRect(x + size * 3 / 4 - eye, y + size / 4, eye, size / 25 + 1);
+		g.fillOval(x + size / 4, y + size / 3, eye, eye / 2 + 1);
+		g.fillOval(x + size * 3 / 4 - eye, y + size / 3, eye, eye / 2 + 1);
+		g.setColor(new Color(150, 60, 60));
+		g.fillOval(x + size * 3 / 8, y + size * 7 / 10, size / 4, size / 10 + 1);
+	}
+}
@@ -0,0 +1,65 @@
+package com.gt22.boxer.bench;
+
+import com.gt22.boxer.Classification;
+import com.gt22.boxer.DetectionParams;
+import com.gt22.boxer.FaceList;
+import com.gt22.boxer.FacialDetector;
+import com.gt22.boxer.utils.MatUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import static org.bytedeco.javacpp.opencv_core.Mat;
+import static org.bytedeco.javacpp.opencv_core.RectVector;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DetectionBenchmark {
+	@Param({"640x480", "1920x1080", "4000x3000"})
+	public String resolution;
+	@Param({"0", "1", "8"})
+	public int faces;
+	/**
+	 * 0 disables pre-pass
+	 */
+	@Param({"0", "0.25"})
+	public double prePass;
+	/**
+	 * dnn needs model, see {@link BenchEngines}, pre-pass doesn't apply to it
+	 */
+	@Param({"cascade", "dnn"})
+	public String engine;
+
+	private BufferedImage buffered;
+	private Mat img;
+	private DetectionParams params;
+
+	@Setup
+	public void setup() {
+		BenchEngines.use(engine);
+		buffered = BenchImages.synthetic(resolution, faces);
+		img = MatUtils.wrap(buffered);
+		params = new DetectionParams();
+		if (prePass > 0) params.prePassScale(prePass);
+	}
+
+	@TearDown
+	public void tearDown() {
+		img.release();
+	}
+
+	@Benchmark
+	public RectVector detectMat() throws InterruptedException {
+		return FacialDetector.detect(img, 0.7f, params);
+	}
+
+	@Benchmark
+	public FaceList detectBufferedImage() throws InterruptedException {
+		return FacialDetector.detect(buffered, 0.7f, Classification.IRRELEVANT, params);
+	}
+}
@@ -0,0 +1,88 @@
+package com.gt22.boxer.bench;
+
+import com.gt22.boxer.BoxDrawer;
+import com.gt22.boxer.BoxRenderer;
+import com.gt22.boxer.Classification;
+import com.gt22.boxer.utils.MatUtils;
+import com.gt22.boxer.utils.RectUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import static org.bytedeco.javacpp.opencv_core.Mat;
+import static org.bytedeco.javacpp.opencv_core.RectVector;
+
+/**
+ * Boxes are drawn repeatedly over same image, cost of drawing doesn't depend on what's under box
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DrawBenchmark {
+	@Param({"640x480", "1920x1080", "4000x3000"})
+	public String resolution;
+	@Param({"1", "8", "32"})
+	public int faces;
+	@Param({"irrelevant", "unknown"})
+	public String classification;
+
+	private Classification clazz;
+	private BufferedImage buffered;
+	private Graphics2D graphics;
+	private Mat img;
+	private int[] rects;
+	private RectVector rectVector;
+	private BoxDrawer vector;
+	private BoxDrawer bitmap;
+
+	@Setup
+	public void setup() throws Exception {
+		clazz = Classification.getClassification(classification);
+		buffered = BenchImages.synthetic(resolution, 0);
+		graphics = buffered.createGraphics();
+		img = MatUtils.wrap(buffered);
+		rects = BenchImages.faceRects(buffered.getWidth(), buffered.getHeight(), faces);
+		rectVector = RectUtils.unpack(rects, faces);
+		vector = BoxDrawer.create(clazz, false);
+		bitmap = BoxDrawer.create(clazz, true);
+	}
+
+	@TearDown
+	public void tearDown() {
+		graphics.dispose();
+		img.release();
+	}
+
+	@Benchmark
+	public Mat vectorMat() {
+		vector.drawAll(img, rectVector);
+		return img;
+	}
+
+	@Benchmark
+	public Mat bitmapMat() {
+		bitmap.drawAll(img, rectVector);
+		return img;
+	}
+
+	@Benchmark
+	public BufferedImage vectorGraphics() {
+		for (int i = 0; i < rects.length; i += 4) {
+			BoxRenderer.draw(graphics, clazz, rects[i], rects[i + 1], rects[i + 2]);
+		}
+		return buffered;
+	}
+
+	@Benchmark
+	public BufferedImage bitmapGraphics() {
+		for (int i = 0; i < rects.length; i += 4) {
+			graphics.drawImage(clazz.getScaledImg(rects[i + 2]), rects[i], rects[i + 1], rects[i + 2], rects[i + 2], null);
+		}
+		return buffered;
+	}
+}
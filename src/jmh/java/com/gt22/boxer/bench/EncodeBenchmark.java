@@ -0,0 +1,80 @@
+package com.gt22.boxer.bench;
+
+import com.gt22.boxer.utils.ImageEncoder;
+import com.gt22.boxer.utils.MatUtils;
+import org.openjdk.jmh.annotations.*;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import static org.bytedeco.javacpp.opencv_core.Mat;
+
+/**
+ * Write path of CLI, output goes to temp file, so disk speed is included in write benchmarks
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncodeBenchmark {
+	@Param({"640x480", "1920x1080", "4000x3000"})
+	public String resolution;
+	@Param({"jpg", "png"})
+	public String format;
+
+	private Mat img;
+	private BufferedImage buffered;
+	private File out;
+
+	@Setup
+	public void setup() throws IOException {
+		buffered = BenchImages.synthetic(resolution, 8);
+		img = MatUtils.wrap(buffered);
+		out = Files.createTempFile("boxer-bench", "." + format).toFile();
+		MatUtils.write(img, out); //Input for read benchmark
+	}
+
+	@TearDown
+	public void tearDown() {
+		img.release();
+		out.delete();
+	}
+
+	@Benchmark
+	public File writeMat() throws IOException {
+		MatUtils.write(img, out);
+		return out;
+	}
+
+	@Benchmark
+	public File writeAsync() throws Exception {
+		ImageEncoder.DEFAULT.writeAsync(img, out.toPath()).get();
+		return out;
+	}
+
+	@Benchmark
+	public int encode() throws IOException {
+		try (ImageEncoder.Encoded data = ImageEncoder.DEFAULT.encode(img, format)) {
+			return data.size();
+		}
+	}
+
+	@Benchmark
+	public File writeImageIO() throws IOException {
+		ImageIO.write(buffered, format, out);
+		return out;
+	}
+
+	@Benchmark
+	public Mat read() throws IOException {
+		Mat ret = MatUtils.read(out);
+		ret.release();
+		return ret;
+	}
+}
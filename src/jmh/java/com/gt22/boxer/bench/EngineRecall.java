@@ -0,0 +1,163 @@
+package com.gt22.boxer.bench;
+
+import com.google.gson.Gson;
+import com.gt22.boxer.DetectionParams;
+import com.gt22.boxer.FacialDetector;
+import com.gt22.boxer.utils.MatUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.bytedeco.javacpp.opencv_core.Mat;
+
+/**
+ * Speed, recall and precision of detection engines on same images, run by gradle recall.
+ * Images are synthetic ones of {@link BenchImages}, or annotated ones listed in JSON Lines of --rects format
+ * (<code>boxer.recall.truth</code> property, image paths are relative to it). Annotated rects should be unexpanded faces, eg. written with -e 0 and reviewed.
+ * Detection matches face if their IoU is at least 0.5, every face matches one detection at most.
+ * Tiles of <code>boxer.recall.tile</code> property are used on bigger images, which is what lets dnn find small faces.
+ * <code>boxer.recall.verbose</code> prints result of every image
+ */
+public class EngineRecall {
+	private static final double MATCH_IOU = 0.5;
+
+	private static class Sample {
+		final String name;
+		final Mat img;
+		final int[] faces;
+
+		Sample(String name, Mat img, int[] faces) {
+			this.name = name;
+			this.img = img;
+			this.faces = faces;
+		}
+	}
+
+	/**
+	 * Record of --rects jsonl output, other fields are ignored
+	 */
+	private static class Record {
+		String image;
+		Face[] faces;
+	}
+
+	private static class Face {
+		int x, y, width, height;
+	}
+
+	/**
+	 * @param args engines to compare, cascade and dnn by default
+	 */
+	public static void main(String[] args) throws Exception {
+		String truth = System.getProperty("boxer.recall.truth");
+		List<Sample> samples = truth == null ? synthetic() : annotated(Paths.get(truth));
+		if (samples.isEmpty()) throw new IllegalStateException("No images to detect on");
+		DetectionParams params = new DetectionParams().tileSize(Integer.getInteger("boxer.recall.tile", 0));
+		System.out.println(samples.size() + " images, " + samples.stream().mapToInt(s -> s.faces.length / 4).sum() + " faces, " + params);
+		for (String engine : args.length > 0 ? args : new String[]{"cascade", "dnn"}) {
+			if (!BenchEngines.isAvailable(engine)) {
+				System.out.println(engine + ": skipped, set -PdnnConfig and -PdnnModel");
+				continue;
+			}
+			BenchEngines.use(engine);
+			FacialDetector.detectPacked(samples.get(0).img, params); //Loads engine
+			long[] nanos = new long[samples.size()];
+			int faces = 0, found = 0, matched = 0;
+			for (int i = 0; i < samples.size(); i++) {
+				Sample s = samples.get(i);
+				long start = System.nanoTime();
+				int[] rects = FacialDetector.detectPacked(s.img, params);
+				nanos[i] = System.nanoTime() - start;
+				int m = match(s.faces, rects);
+				faces += s.faces.length / 4;
+				found += rects.length / 4;
+				matched += m;
+				if (Boolean.getBoolean("boxer.recall.verbose")) {
+					System.out.printf("  %s: %d of %d faces, %d detections, %.1fms%n", s.name, m, s.faces.length / 4, rects.length / 4, nanos[i] / 1e6);
+				}
+			}
+			Arrays.sort(nanos);
+			System.out.printf("%-8s recall: %.3f, precision: %.3f, mean: %.1fms, median: %.1fms, p95: %.1fms%n", engine,
+				faces == 0 ? 1 : (double) matched / faces, found == 0 ? 1 : (double) matched / found,
+				Arrays.stream(nanos).average().orElse(0) / 1e6, nanos[nanos.length / 2] / 1e6, nanos[(int) Math.ceil(nanos.length * 0.95) - 1] / 1e6);
+		}
+		for (Sample s : samples) {
+			s.img.release();
+		}
+	}
+
+	private static List<Sample> synthetic() {
+		List<Sample> ret = new ArrayList<>();
+		for (String resolution : new String[]{"640x480", "1920x1080", "4000x3000"}) {
+			for (int faces : new int[]{0, 1, 8, 32}) {
+				int[] size = BenchImages.parseResolution(resolution);
+				ret.add(new Sample(resolution + "/" + faces, MatUtils.wrap(BenchImages.synthetic(resolution, faces)), BenchImages.faceRects(size[0], size[1], faces)));
+			}
+		}
+		return ret;
+	}
+
+	private static List<Sample> annotated(Path truth) throws IOException {
+		Gson gson = new Gson();
+		List<Sample> ret = new ArrayList<>();
+		try (BufferedReader in = Files.newBufferedReader(truth, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.trim().isEmpty()) continue;
+				Record r = gson.fromJson(line, Record.class);
+				Path image = truth.toAbsolutePath().resolveSibling(r.image);
+				Mat img = MatUtils.read(image.toFile());
+				if (img == null) throw new IOException("Unsupported image format " + image);
+				int[] faces = new int[r.faces == null ? 0 : r.faces.length * 4];
+				for (int i = 0; i < faces.length / 4; i++) {
+					faces[i * 4] = r.faces[i].x;
+					faces[i * 4 + 1] = r.faces[i].y;
+					faces[i * 4 + 2] = r.faces[i].width;
+					faces[i * 4 + 3] = r.faces[i].height;
+				}
+				ret.add(new Sample(r.image, img, faces));
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @return amount of faces matched by detections, greedily by best IoU of every face
+	 */
+	private static int match(int[] faces, int[] found) {
+		boolean[] used = new boolean[found.length / 4];
+		int ret = 0;
+		for (int f = 0; f < faces.length; f += 4) {
+			int best = -1;
+			double bestIou = MATCH_IOU;
+			for (int d = 0; d < found.length; d += 4) {
+				if (used[d / 4]) continue;
+				double iou = iou(faces, f, found, d);
+				if (iou >= bestIou) {
+					best = d / 4;
+					bestIou = iou;
+				}
+			}
+			if (best >= 0) {
+				used[best] = true;
+				ret++;
+			}
+		}
+		return ret;
+	}
+
+	private static double iou(int[] a, int ao, int[] b, int bo) {
+		long w = Math.min(a[ao] + a[ao + 2], b[bo] + b[bo + 2]) - Math.max(a[ao], b[bo]);
+		long h = Math.min(a[ao + 1] + a[ao + 3], b[bo + 1] + b[bo + 3]) - Math.max(a[ao + 1], b[bo + 1]);
+		if (w <= 0 || h <= 0) return 0;
+		long inter = w * h;
+		return (double) inter / ((long) a[ao + 2] * a[ao + 3] + (long) b[bo + 2] * b[bo + 3] - inter);
+	}
+}
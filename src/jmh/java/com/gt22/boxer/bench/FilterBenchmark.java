@@ -0,0 +1,59 @@
+package com.gt22.boxer.bench;
+
+import com.gt22.boxer.utils.RectIndex;
+import com.gt22.boxer.utils.RectUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Post-processing of raw detections, candidates are scattered over 20000px square with some duplicates at other scales
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark {
+	@Param({"100", "1000", "10000", "50000"})
+	public int candidates;
+
+	private int[] rects;
+
+	@Setup
+	public void setup() {
+		Random rnd = new Random(42);
+		rects = new int[candidates * 4];
+		for (int i = 0; i < candidates; i++) {
+			int o = i * 4;
+			if (i > 0 && rnd.nextInt(4) == 0) { //Same face at other scale
+				int size = rects[o - 2] * 3 / 4;
+				rects[o] = rects[o - 4] + size / 8;
+				rects[o + 1] = rects[o - 3] + size / 8;
+				rects[o + 2] = rects[o + 3] = size;
+			} else {
+				int size = 24 + rnd.nextInt(200);
+				rects[o] = rnd.nextInt(20000);
+				rects[o + 1] = rnd.nextInt(20000);
+				rects[o + 2] = rects[o + 3] = size;
+			}
+		}
+	}
+
+	@Benchmark
+	public int[] suppress() {
+		return RectUtils.suppress(rects, 0.3, 0.7);
+	}
+
+	@Benchmark
+	public int[] merge() {
+		return RectUtils.merge(rects, 0.3, 0.7);
+	}
+
+	@Benchmark
+	public RectIndex index() {
+		return new RectIndex(rects);
+	}
+}
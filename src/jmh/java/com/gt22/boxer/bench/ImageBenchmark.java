@@ -0,0 +1,54 @@
+package com.gt22.boxer.bench;
+
+import com.gt22.boxer.Classification;
+import com.gt22.boxer.utils.ImageUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Box artwork loading and scaling, both with bundled images
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImageBenchmark {
+	@Param({"32", "200", "800"})
+	public int size;
+
+	private BufferedImage box;
+	private BufferedImage overlay;
+
+	@Setup
+	public void setup() throws Exception {
+		box = BenchImages.bundled("irrelevant");
+		overlay = BenchImages.bundled("relevant_threat");
+	}
+
+	@Benchmark
+	public BufferedImage resize() {
+		return ImageUtils.resize(box, size, size);
+	}
+
+	@Benchmark
+	public BufferedImage mergeImages() {
+		return ImageUtils.mergeImages(ImageUtils.resize(box, size, size), overlay);
+	}
+
+	/**
+	 * Default size is served from memory cache after first call
+	 */
+	@Benchmark
+	public BufferedImage getImgCached() {
+		return Classification.IRRELEVANT.getImgAsync().join();
+	}
+
+	@Benchmark
+	public BufferedImage getScaledImg() {
+		return Classification.IRRELEVANT.getScaledImg(size);
+	}
+}
@@ -0,0 +1,53 @@
+package com.gt22.boxer;
+
+import com.gt22.boxer.utils.Metrics;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.bytedeco.javacpp.opencv_core.*;
+
+/**
+ * Draws boxes onto BGR Mat
+ */
+public interface BoxDrawer {
+
+	/**
+	 * @param img BGR image
+	 */
+	void draw(Mat img, int x, int y, int size);
+
+	default void drawAll(Mat img, RectVector faces) {
+		long start = System.nanoTime();
+		for (int i = 0; i < faces.size(); i++) {
+			Rect r = faces.get(i);
+			//Rect should be already squared in FacialDetector#detect, but just to be sure width also used as height
+			draw(img, r.x(), r.y(), r.width());
+		}
+		Metrics.Stage.DRAW.record(start);
+	}
+
+	/**
+	 * Detects faces and draws boxes over them in place
+	 * @return stage completed with same image
+	 */
+	default CompletableFuture<Mat> boxAsync(Mat img, float expandBy, DetectionParams params) {
+		return FacialDetector.detectAsync(img, expandBy, params).thenApply(faces -> {
+			drawAll(img, faces);
+			return img;
+		});
+	}
+
+	/**
+	 * @param bitmap blend box artwork instead of drawing it procedurally
+	 */
+	static CompletableFuture<BoxDrawer> createAsync(Classification clazz, boolean bitmap) {
+		if (bitmap) {
+			return clazz.getImgAsync().thenApply(MatBoxDrawer::new);
+		}
+		return CompletableFuture.completedFuture(new VectorBoxDrawer(clazz));
+	}
+
+	static BoxDrawer create(Classification clazz, boolean bitmap) {
+		return createAsync(clazz, bitmap).join();
+	}
+}
@@ -0,0 +1,116 @@
+package com.gt22.boxer;
+
+import java.awt.*;
+
+/**
+ * Draws classification boxes procedurally at exact size, geometry follows 200px artwork.
+ * Box is symmetric, so only top left quadrant is described and other quadrants are its mirror images,
+ * that also allows {@link Classification#UNKNOWN} to take style of other classification per quadrant.
+ * Every shape is filled rect passed to {@link Target}, draw path doesn't allocate
+ */
+public class BoxRenderer {
+	private static final double ARTWORK_SIZE = 200;
+	//Top left quadrant of artwork, rects as x, y, width, height
+	private static final int[] CORNER = {4, 4, 20, 9, 4, 4, 9, 20};
+	private static final int[] TICKS = {96, 7, 4, 19, 7, 96, 19, 4}; //Halves of mid-side ticks
+	private static final int DASH_OFFSET = 7, DASH_WIDTH = 4, DASH_START = 30, DASH_LENGTH = 9, DASH_STEP = 17, DASH_COUNT = 4;
+	//Dashes shorter than that are unreadable, so they are merged into solid line
+	private static final double MIN_DASH_PIXELS = 2;
+
+	/**
+	 * Receives rects to fill, coordinates are in target space
+	 */
+	public interface Target {
+		void fill(int x, int y, int width, int height, Color color);
+	}
+
+	//Graphics overload is static, so its adapter is per thread instead of per call
+	private static final ThreadLocal<GraphicsTarget> graphicsTarget = ThreadLocal.withInitial(GraphicsTarget::new);
+
+	private static class GraphicsTarget implements Target {
+		Graphics2D g;
+
+		@Override
+		public void fill(int x, int y, int width, int height, Color color) {
+			g.setColor(color);
+			g.fillRect(x, y, width, height);
+		}
+	}
+
+	/**
+	 * Draws box, color of graphics is restored afterwards
+	 */
+	public static void draw(Graphics2D g, Classification c, int x, int y, int size) {
+		Color old = g.getColor();
+		GraphicsTarget target = graphicsTarget.get();
+		target.g = g;
+		try {
+			draw(c, x, y, size, target);
+		} finally {
+			target.g = null; //Graphics isn't kept alive by thread
+			g.setColor(old);
+		}
+	}
+
+	public static void draw(Classification c, int x, int y, int size, Target target) {
+		if (size <= 0) return;
+		double unit = size / ARTWORK_SIZE;
+		boolean dashed = DASH_LENGTH * unit >= MIN_DASH_PIXELS;
+		for (int q = 0; q < 4; q++) {
+			Classification style = quadrantStyle(c, q);
+			boolean right = (q & 1) != 0, bottom = (q & 2) != 0;
+			Color corner = style.getCornerColor();
+			for (int i = 0; i < CORNER.length; i += 4) {
+				fill(target, x, y, size, unit, right, bottom, CORNER[i], CORNER[i + 1], CORNER[i + 2], CORNER[i + 3], corner);
+			}
+			for (int i = 0; i < TICKS.length; i += 4) {
+				fill(target, x, y, size, unit, right, bottom, TICKS[i], TICKS[i + 1], TICKS[i + 2], TICKS[i + 3], corner);
+			}
+			Color line = style.getLineColor();
+			if (dashed) {
+				for (int i = 0; i < DASH_COUNT; i++) {
+					int start = DASH_START + i * DASH_STEP;
+					fill(target, x, y, size, unit, right, bottom, start, DASH_OFFSET, DASH_LENGTH, DASH_WIDTH, line);
+					fill(target, x, y, size, unit, right, bottom, DASH_OFFSET, start, DASH_WIDTH, DASH_LENGTH, line);
+				}
+			} else {
+				int length = (DASH_COUNT - 1) * DASH_STEP + DASH_LENGTH;
+				fill(target, x, y, size, unit, right, bottom, DASH_START, DASH_OFFSET, length, DASH_WIDTH, line);
+				fill(target, x, y, size, unit, right, bottom, DASH_OFFSET, DASH_START, DASH_WIDTH, length, line);
+			}
+		}
+	}
+
+	/**
+	 * @param q quadrant, bit 0 is right, bit 1 is bottom
+	 */
+	private static Classification quadrantStyle(Classification c, int q) {
+		if (c != Classification.UNKNOWN) return c;
+		switch (q) {
+			case 0:
+				return Classification.IRRELEVANT;
+			case 1:
+				return Classification.RELEVANT_THREAT;
+			case 2:
+				return Classification.CATALYST;
+			default:
+				return Classification.ASSET;
+		}
+	}
+
+	/**
+	 * Scales artwork rect of top left quadrant and mirrors it to requested quadrant.
+	 * Mirroring is done after rounding, so box stays pixel-symmetric at any size
+	 */
+	private static void fill(Target target, int x, int y, int size, double unit, boolean right, boolean bottom, int ax, int ay, int aw, int ah, Color color) {
+		int x0 = scale(ax, unit), x1 = Math.max(x0 + 1, scale(ax + aw, unit));
+		int y0 = scale(ay, unit), y1 = Math.max(y0 + 1, scale(ay + ah, unit));
+		int rx = right ? size - x1 : x0;
+		int ry = bottom ? size - y1 : y0;
+		target.fill(x + rx, y + ry, x1 - x0, y1 - y0, color);
+	}
+
+	private static int scale(int artwork, double unit) {
+		return (int) Math.round(artwork * unit);
+	}
+}
@@ -1,49 +1,270 @@
 package com.gt22.boxer;
 
+import com.gt22.boxer.batch.BatchBoxer;
+import com.gt22.boxer.batch.InputResolver;
+import com.gt22.boxer.batch.RectWriter;
+import com.gt22.boxer.server.BoxerServer;
+import com.gt22.boxer.utils.ImageEncoder;
+import com.gt22.boxer.utils.MatUtils;
+import com.gt22.boxer.utils.Metrics;
+import com.gt22.boxer.utils.RectUtils;
+import com.gt22.boxer.video.VideoBoxer;
 import com.gt22.randomutils.log.SimpleLog;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FrameGrabber;
+import org.bytedeco.javacv.OpenCVFrameGrabber;
 
-import javax.imageio.ImageIO;
-import java.awt.*;
-import java.awt.image.BufferedImage;
-import java.io.File;
-import java.io.IOException;
+import java.awt.Dimension;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.bytedeco.javacpp.opencv_core.*;
 
 public class CLI {
 	private static final SimpleLog log = SimpleLog.getLog("Boxer#cli");
 	private static class Settings {
+		List<String> inputs = new ArrayList<>();
 		String inFile;
 		String outFile;
 		Classification clazz = Classification.IRRELEVANT;
 		float expandBy = 0.7f;
+		boolean recursive = false;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int queue = -1;
+		int detectors = 0;
+		boolean video = false;
+		int camera = -1;
+		int keyframe = 10;
+		long frames = 0;
+		boolean bitmapBoxes = false;
+		int quality = 95;
+		int pngCompression = -1;
+		boolean progressive = false;
+		long memoryBudget = 1024L << 20;
+		RectWriter.Format rects;
+		int cacheEntries = 0;
+		String cacheDir;
+		boolean server = false;
+		int port = 8080;
+		long maxUpload = 64L << 20;
+		String metricsFile;
+		boolean warmUp = false;
+		int metricsInterval = 10;
+		boolean dnn = false;
+		String dnnConfig;
+		String dnnModel;
+		int dnnInput = 300;
+		DetectionParams params = new DetectionParams();
+
+		ImageEncoder encoder() {
+			return new ImageEncoder(quality, pngCompression, progressive);
+		}
 	}
 
-	public static void box(String[] args) throws IOException, InterruptedException, ExecutionException {
+	public static void box(String[] args) throws Exception {
 		Settings st = processArgs(args);
+		if (st.detectors > 0) FacialDetector.setPoolSize(st.detectors);
+		if (st.dnn) {
+			FacialDetector.useDnn(Paths.get(st.dnnConfig), Paths.get(st.dnnModel), st.dnnInput);
+			log.info("Detection engine: " + FacialDetector.getEngine());
+		}
+		if (st.metricsFile != null) {
+			Path metrics = Paths.get(st.metricsFile);
+			Metrics.dumpEvery(metrics, st.metricsInterval, TimeUnit.SECONDS);
+			//Final dump covers runs shorter than interval, stop() exits through hooks too
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				try {
+					Metrics.dump(metrics);
+				} catch (IOException e) {
+					log.warn("Unable to write metrics: " + e);
+				}
+			}));
+		}
+		if (st.cacheEntries > 0 || st.cacheDir != null) {
+			FacialDetector.setCache(new DetectionCache(st.cacheEntries > 0 ? st.cacheEntries : 4096,
+				st.cacheDir == null ? null : Paths.get(st.cacheDir), Long.getLong("boxer.detectionCache.maxBytes", 256L << 20)));
+		}
+		if (st.warmUp) {
+			warmUp(st);
+			return;
+		}
+		if (st.server) {
+			serve(st);
+			return;
+		}
+		//Detector loads while input is decoded, failure shows up again on first detection
+		FacialDetector.preload();
+		if (st.video || st.camera >= 0) {
+			boxVideo(st);
+			return;
+		}
+		if (st.inputs.size() > 1 || InputResolver.isBatchInput(st.inFile)) {
+			boxBatch(st);
+			return;
+		}
 		log.info("Initiate boxing");
 
 
 		File src = new File(st.inFile);
 		if(!src.exists()) stop("Unable to find " + src.getAbsolutePath());
 		if(!src.canRead()) stop("Can't read " + src.getAbsolutePath());
-		BufferedImage img = ImageIO.read(src);
-		log.info("Image read");
+		if (LargeImageBoxer.exceeds(src, st.memoryBudget)) {
+			boxLarge(st, src);
+			return;
+		}
+		long start = System.nanoTime();
+		Mat img = MatUtils.read(src);
+		if(img == null) stop("Unsupported image format " + src.getAbsolutePath());
+		log.info("Image read" + took(start));
 
-		List<FacialDetector.Face> faces = FacialDetector.detect(img, st.expandBy, st.clazz);
-		log.info("Faces detected... " + faces.size() + " recognized.");
+		start = System.nanoTime();
+		RectVector faces = FacialDetector.detect(img, st.expandBy, st.params);
+		log.info("Faces detected... " + faces.size() + " recognized" + took(start));
+		if (FacialDetector.getCache() != null) log.debug("Detection cache: " + FacialDetector.getCache().getStats());
 
+		if (st.rects != null) {
+			try (RectWriter out = openRectWriter(st)) {
+				out.write(st.inFile, img.cols(), img.rows(), faces);
+			}
+			log.info("Rects written, boxing complete");
+			return;
+		}
 
-		BufferedImage box = st.clazz.getImg().get();
+		start = System.nanoTime();
+		BoxDrawer.create(st.clazz, st.bitmapBoxes).drawAll(img, faces);
+		log.info("Boxes drawn" + took(start));
 
-		Graphics2D g = img.createGraphics();
-		//Rect should be already squared in FacialDetector#detect, but just to be sure width also used as height
-		faces.forEach(f -> g.drawImage(box, f.rect.x(), f.rect.y(), f.rect.width(), f.rect.width(), null));
-		g.dispose();
-		log.info("Boxes drawn");
+		start = System.nanoTime();
+		st.encoder().write(img, Paths.get(st.outFile));
+		log.info("Image saved" + took(start) + ", boxing complete");
+	}
 
-		ImageIO.write(img, st.outFile.substring(st.outFile.lastIndexOf('.') + 1), new File(st.outFile));
-		log.info("Image saved, boxing complete");
+	/**
+	 * Runs every stage once on synthetic image without touching files, training run for class data sharing archive (see build.gradle)
+	 */
+	private static void warmUp(Settings st) throws Exception {
+		long start = System.nanoTime();
+		Mat img = new Mat(480, 640, CV_8UC3, new Scalar(96, 128, 160, 0));
+		try {
+			FacialDetector.detect(img, st.expandBy, st.params);
+			log.info("Detector loaded" + took(start));
+			BoxDrawer.create(st.clazz, st.bitmapBoxes).drawAll(img, RectUtils.unpack(new int[]{240, 160, 160, 160}, 1));
+			for (String format : new String[]{"jpg", "png"}) {
+				st.encoder().encode(img, format).close();
+			}
+		} finally {
+			img.release();
+		}
+		log.info("Warm-up complete" + took(start));
+	}
+
+	private static String took(long start) {
+		return String.format(" in %.1fms", (System.nanoTime() - start) / 1e6);
+	}
+
+	private static void boxLarge(Settings st, File src) throws Exception {
+		log.info("Image exceeds memory budget, detecting on subsampled copy");
+		if (st.bitmapBoxes) log.warn("Bitmap boxes aren't supported for large images, drawing procedural ones");
+		LargeImageBoxer boxer = new LargeImageBoxer(st.clazz, st.expandBy, st.params, st.memoryBudget, st.encoder());
+		long start = System.nanoTime();
+		RectVector faces = boxer.detect(src);
+		log.info("Faces detected... " + faces.size() + " recognized" + took(start));
+
+		if (st.rects != null) {
+			Dimension size = MatUtils.readSize(src);
+			try (RectWriter out = openRectWriter(st)) {
+				out.write(st.inFile, size.width, size.height, faces);
+			}
+			log.info("Rects written, boxing complete");
+			return;
+		}
+
+		start = System.nanoTime();
+		boxer.composite(src, new File(st.outFile), faces);
+		log.info("Image saved" + took(start) + ", boxing complete");
+	}
+
+	private static void serve(Settings st) throws Exception {
+		int capacity = st.queue > 0 ? st.queue : st.threads * 2;
+		BoxerServer server = new BoxerServer(st.port, capacity, st.maxUpload, st.clazz, st.expandBy, st.params, st.bitmapBoxes, st.encoder());
+		Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+		server.start();
+		Thread.currentThread().join(); //Serve until killed
+	}
+
+	private static void boxBatch(Settings st) throws Exception {
+		String prefix = st.clazz + "_";
+		//Boxed images of previous runs aren't boxed again
+		InputResolver resolver = new InputResolver(st.recursive, st.rects == null ? prefix : null);
+		List<Path> inputs = resolver.resolve(st.inputs);
+		if (inputs.isEmpty()) stop("No input images found");
+		log.info("Initiate batch boxing of " + inputs.size() + " images on " + st.threads + " threads");
+		int failed;
+		int capacity = st.queue > 0 ? st.queue : st.threads * 2;
+		if (st.rects != null) {
+			try (BatchBoxer boxer = new BatchBoxer(st.threads, capacity, null, null, st.expandBy, st.params);
+			     RectWriter out = openRectWriter(st)) {
+				failed = boxer.detect(inputs, out);
+			}
+		} else {
+			Map<Path, Path> outputs = outputs(inputs, resolver, st.outFile == null ? null : Paths.get(st.outFile), prefix);
+			try (BatchBoxer boxer = new BatchBoxer(st.threads, capacity, BoxDrawer.create(st.clazz, st.bitmapBoxes), st.encoder(), st.expandBy, st.params)) {
+				failed = boxer.run(inputs, outputs::get);
+			}
+		}
+		if (failed > 0) stop(failed + " images failed");
+	}
+
+	/**
+	 * In batch mode output is directory, where images keep their paths relative to input directory or glob base.
+	 * If not specified boxed images are placed near source ones
+	 */
+	private static Map<Path, Path> outputs(List<Path> inputs, InputResolver resolver, Path outDir, String prefix) {
+		Map<Path, Path> ret = new HashMap<>();
+		Map<Path, Path> sources = new HashMap<>();
+		for (Path in : inputs) {
+			Path out = outDir == null ? in : outDir.resolve(resolver.relative(in));
+			out = out.resolveSibling(prefix + out.getFileName());
+			Path other = sources.put(out.toAbsolutePath().normalize(), in);
+			if (other != null) stop("Both " + other + " and " + in + " would be written to " + out);
+			ret.put(in, out);
+		}
+		return ret;
+	}
+
+	/**
+	 * Rects go to output file, faces.%format% if not specified, or stdout if output is -
+	 */
+	private static RectWriter openRectWriter(Settings st) throws IOException {
+		String out = st.outFile == null ? "faces." + st.rects.name().toLowerCase() : st.outFile;
+		Writer w = out.equals("-")
+			? new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8)
+			: Files.newBufferedWriter(Paths.get(out), StandardCharsets.UTF_8);
+		return new RectWriter(new BufferedWriter(w, 1 << 16), st.rects, st.clazz);
+	}
+
+	private static void boxVideo(Settings st) throws Exception {
+		if (st.outFile == null) stop("Specify output file");
+		FrameGrabber grabber;
+		if (st.camera >= 0) {
+			grabber = new OpenCVFrameGrabber(st.camera);
+			log.info("Initiate boxing of camera " + st.camera);
+		} else {
+			File src = new File(st.inFile);
+			if(!src.exists()) stop("Unable to find " + src.getAbsolutePath());
+			grabber = new FFmpegFrameGrabber(src);
+			log.info("Initiate boxing of video " + st.inFile);
+		}
+		new VideoBoxer(BoxDrawer.create(st.clazz, st.bitmapBoxes), st.expandBy, st.keyframe, st.params).box(grabber, st.outFile, st.frames);
+		log.info("Video saved, boxing complete");
 	}
 
 	private static Settings processArgs(String[] args) {
@@ -84,17 +305,309 @@ public class CLI {
 					log.debug("Output: " + st.outFile);
 					break;
 				}
+				case "-r":
+				case "--recursive": {
+					st.recursive = true;
+					break;
+				}
+				case "-j":
+				case "--threads": {
+					i++;
+					if(args.length == i) stop("Specify thread count");
+					st.threads = parsePositiveInt(args[i], "Invalid thread count");
+					log.debug("Threads: " + st.threads);
+					break;
+				}
+				case "-q":
+				case "--queue": {
+					i++;
+					if(args.length == i) stop("Specify queue size");
+					st.queue = parsePositiveInt(args[i], "Invalid queue size");
+					log.debug("Queue: " + st.queue);
+					break;
+				}
+				case "-v":
+				case "--video": {
+					st.video = true;
+					break;
+				}
+				case "--camera": {
+					i++;
+					if(args.length == i) stop("Specify camera index");
+					try {
+						st.camera = Integer.parseInt(args[i]);
+					} catch(NumberFormatException e) {
+						stop("Invalid camera index");
+					}
+					break;
+				}
+				case "-k":
+				case "--keyframe": {
+					i++;
+					if(args.length == i) stop("Specify keyframe interval");
+					st.keyframe = parsePositiveInt(args[i], "Invalid keyframe interval");
+					log.debug("Keyframe interval: " + st.keyframe);
+					break;
+				}
+				case "--frames": {
+					i++;
+					if(args.length == i) stop("Specify frame count");
+					st.frames = parsePositiveInt(args[i], "Invalid frame count");
+					break;
+				}
+				case "--scale-factor": {
+					i++;
+					if(args.length == i) stop("Specify scale factor");
+					try {
+						st.params.scaleFactor(Double.parseDouble(args[i]));
+					} catch(IllegalArgumentException e) {
+						stop("Invalid scale factor: " + e.getMessage());
+					}
+					break;
+				}
+				case "--min-neighbors": {
+					i++;
+					if(args.length == i) stop("Specify min neighbors");
+					try {
+						st.params.minNeighbors(Integer.parseInt(args[i]));
+					} catch(IllegalArgumentException e) {
+						stop("Invalid min neighbors: " + e.getMessage());
+					}
+					break;
+				}
+				case "--min-size": {
+					i++;
+					if(args.length == i) stop("Specify min face size");
+					try {
+						st.params.minSize(Integer.parseInt(args[i]));
+					} catch(IllegalArgumentException e) {
+						stop("Invalid min face size: " + e.getMessage());
+					}
+					break;
+				}
+				case "--max-size": {
+					i++;
+					if(args.length == i) stop("Specify max face size");
+					try {
+						st.params.maxSize(Integer.parseInt(args[i]));
+					} catch(IllegalArgumentException e) {
+						stop("Invalid max face size: " + e.getMessage());
+					}
+					break;
+				}
+				case "--overlap": {
+					i++;
+					if(args.length == i) stop("Specify overlap threshold");
+					try {
+						st.params.overlapThreshold(Double.parseDouble(args[i]));
+					} catch(IllegalArgumentException e) {
+						stop("Invalid overlap threshold: " + e.getMessage());
+					}
+					break;
+				}
+				case "--merge": {
+					st.params.mergeOverlaps(true);
+					break;
+				}
+				case "--prepass": {
+					i++;
+					if(args.length == i) stop("Specify pre-pass scale");
+					try {
+						st.params.prePassScale(Double.parseDouble(args[i]));
+					} catch(IllegalArgumentException e) {
+						stop("Invalid pre-pass scale: " + e.getMessage());
+					}
+					break;
+				}
+				case "--max-pixels": {
+					i++;
+					if(args.length == i) stop("Specify max pixels");
+					try {
+						st.params.maxPixels(Long.parseLong(args[i]));
+					} catch(IllegalArgumentException e) {
+						stop("Invalid max pixels: " + e.getMessage());
+					}
+					break;
+				}
+				case "--tile": {
+					i++;
+					if(args.length == i) stop("Specify tile size");
+					try {
+						st.params.tileSize(Integer.parseInt(args[i]));
+					} catch(IllegalArgumentException e) {
+						stop("Invalid tile size: " + e.getMessage());
+					}
+					break;
+				}
+				case "--engine": {
+					i++;
+					if(args.length == i) stop("Specify detection engine");
+					if(!args[i].equals("cascade") && !args[i].equals("dnn")) stop("Unknown detection engine: " + args[i] + ", use cascade or dnn");
+					st.dnn = args[i].equals("dnn");
+					break;
+				}
+				case "--dnn-config": {
+					i++;
+					if(args.length == i) stop("Specify dnn prototxt");
+					st.dnnConfig = args[i];
+					break;
+				}
+				case "--dnn-model": {
+					i++;
+					if(args.length == i) stop("Specify dnn caffemodel");
+					st.dnnModel = args[i];
+					break;
+				}
+				case "--dnn-input": {
+					i++;
+					if(args.length == i) stop("Specify dnn input size");
+					st.dnnInput = parsePositiveInt(args[i], "Invalid dnn input size");
+					break;
+				}
+				case "--confidence": {
+					i++;
+					if(args.length == i) stop("Specify min confidence");
+					try {
+						st.params.confidence(Double.parseDouble(args[i]));
+					} catch(IllegalArgumentException e) {
+						stop("Invalid min confidence: " + e.getMessage());
+					}
+					break;
+				}
+				case "--bitmap-boxes": {
+					st.bitmapBoxes = true;
+					break;
+				}
+				case "--rects": {
+					i++;
+					if(args.length == i) stop("Specify rects format");
+					st.rects = RectWriter.parseFormat(args[i]);
+					if(st.rects == null) stop("Unknown rects format: " + args[i] + ", use jsonl or csv");
+					break;
+				}
+				case "-Q":
+				case "--quality": {
+					i++;
+					if(args.length == i) stop("Specify quality");
+					st.quality = parseInt(args[i], 0, 100, "Quality should be in 0-100");
+					break;
+				}
+				case "--png-compression": {
+					i++;
+					if(args.length == i) stop("Specify png compression level");
+					st.pngCompression = parseInt(args[i], 0, 9, "PNG compression should be in 0-9");
+					break;
+				}
+				case "--progressive": {
+					st.progressive = true;
+					break;
+				}
+				case "--memory-budget": {
+					i++;
+					if(args.length == i) stop("Specify memory budget");
+					st.memoryBudget = parsePositiveInt(args[i], "Invalid memory budget") * (1L << 20);
+					break;
+				}
+				case "--cache": {
+					i++;
+					if(args.length == i) stop("Specify cache size");
+					st.cacheEntries = parsePositiveInt(args[i], "Invalid cache size");
+					break;
+				}
+				case "--cache-dir": {
+					i++;
+					if(args.length == i) stop("Specify cache directory");
+					st.cacheDir = args[i];
+					break;
+				}
+				case "--server": {
+					st.server = true;
+					break;
+				}
+				case "--port": {
+					i++;
+					if(args.length == i) stop("Specify port");
+					st.port = parsePositiveInt(args[i], "Invalid port");
+					break;
+				}
+				case "--max-upload": {
+					i++;
+					if(args.length == i) stop("Specify max upload size");
+					st.maxUpload = parsePositiveLong(args[i], "Invalid max upload size");
+					break;
+				}
+				case "--metrics": {
+					i++;
+					if(args.length == i) stop("Specify metrics file");
+					st.metricsFile = args[i];
+					break;
+				}
+				case "--metrics-interval": {
+					i++;
+					if(args.length == i) stop("Specify metrics interval");
+					st.metricsInterval = parsePositiveInt(args[i], "Invalid metrics interval");
+					break;
+				}
+				case "--warm-up": {
+					st.warmUp = true;
+					break;
+				}
+				case "--detectors": {
+					i++;
+					if(args.length == i) stop("Specify detector count");
+					st.detectors = parsePositiveInt(args[i], "Invalid detector count");
+					break;
+				}
 				default: {
 					st.inFile = args[i];
+					st.inputs.add(args[i]);
 					log.debug("Input: " + st.inFile);
 					break;
 				}
 			}
 		}
-		if(st.outFile == null) st.outFile = st.clazz + "_" + st.inFile;
+		log.debug("Detection: " + st.params);
+		if(st.dnn) {
+			if(st.dnnConfig == null || st.dnnModel == null) stop("Specify --dnn-config and --dnn-model for dnn engine");
+			if(!new File(st.dnnConfig).isFile()) stop("Unable to find " + new File(st.dnnConfig).getAbsolutePath());
+			if(!new File(st.dnnModel).isFile()) stop("Unable to find " + new File(st.dnnModel).getAbsolutePath());
+		}
+		if(st.camera >= 0 || st.server || st.warmUp) return st;
+		if(st.inFile == null) stop("Specify input image");
+		if(st.outFile == null && st.rects == null && st.inputs.size() == 1 && !InputResolver.isBatchInput(st.inFile)) st.outFile = st.clazz + "_" + st.inFile;
 		return st;
 	}
 
+	private static int parsePositiveInt(String arg, String error) {
+		try {
+			int ret = Integer.parseInt(arg);
+			if(ret > 0) return ret;
+		} catch(NumberFormatException ignored) {
+		}
+		stop(error);
+		return -1;
+	}
+
+	private static long parsePositiveLong(String arg, String error) {
+		try {
+			long ret = Long.parseLong(arg);
+			if(ret > 0) return ret;
+		} catch(NumberFormatException ignored) {
+		}
+		stop(error);
+		return -1;
+	}
+
+	private static int parseInt(String arg, int min, int max, String error) {
+		try {
+			int ret = Integer.parseInt(arg);
+			if(ret >= min && ret <= max) return ret;
+		} catch(NumberFormatException ignored) {
+		}
+		stop(error);
+		return -1;
+	}
+
 	private static void stop(String message) {
 		log.warn(message);
 		System.exit(1);
@@ -102,6 +615,29 @@ public class CLI {
 
 	private static void displayHelp() {
 		System.out.println("Usage: boxer %input_file% [-c(lass) %classification%=irrelevant] [-e(xpansion) %box-expansion-factor%=0.5] [-o(utput) %output_file%=%classification%_%input_file%");
+		System.out.println("Batch: boxer %input%... [-r(ecursive)] [-j (--threads) %threads%=cores] [-q(ueue) %images-in-flight%=2*threads] [-o(utput) %output_dir%=near input]");
+		System.out.println("  output keeps image paths relative to input directory, %classification%_* files are skipped as previous outputs");
+		System.out.println("  --detectors %count%=cores limits amount of concurrently used detectors (each holds its own copy of cascade)");
+		System.out.println("  input can be image, directory, glob (eg. 'photos/**/*.jpg') or @file with one input per line");
+		System.out.println("Video: boxer %input_video% -v(ideo) | boxer --camera %index% -o %output_video% [-k(eyframe) %detect-every-n-frames%=10] [--frames %max-frames%]");
+		System.out.println("Rects: boxer %input%... --rects jsonl|csv [-o(utput) %file%=faces.%format%, - for stdout] writes face rects instead of boxed images");
+		System.out.println("Output: [-Q (--quality) %jpeg-webp-quality%=95] [--png-compression %0-9%=fast] [--progressive] jpeg");
+		System.out.println("  [--memory-budget %MB%=1024] bigger images are detected on subsampled copy and boxed stripe by stripe (png, bmp, jpeg, and tiff on Java 9+ output only)");
+		System.out.println("Cache: [--cache %entries%] reuse detection results for repeated images, [--cache-dir %dir%] also keep them on disk (implies --cache 4096)");
+		System.out.println("Server: boxer --server [--port %port%=8080] [-q(ueue) %requests-in-flight%=2*threads] [--max-upload %bytes%=64MB]");
+		System.out.println("  -c, -e and detection options set defaults, endpoints: POST /box, POST /detect, POST /detect/batch, GET /health, GET /metrics (Prometheus, ?format=json)");
+		System.out.println("Metrics: [--metrics %file%] dump stage latencies, throughput and cache stats as json every [--metrics-interval %seconds%=10] and on exit");
+		System.out.println("Detection: [--scale-factor %pyramid-step%=1.1] [--min-neighbors %n%=3] [--min-size %px%] [--max-size %px%]");
+		System.out.println("  [--overlap %iou%=0.3] detections of same face overlapping more than that are reduced to biggest one, 0 disables, [--merge] to their mean instead");
+		System.out.println("  [--prepass %scale%] detect on downscaled copy (eg. 0.25) and refine around found faces");
+		System.out.println("  [--max-pixels %n%] downscale images bigger than that before detection");
+		System.out.println("  [--tile %px%] split bigger images into overlapping tiles detected in parallel");
+		System.out.println("Engine: [--engine cascade|dnn] bundled cascade, or Caffe SSD face model (eg. ResNet-SSD) on OpenCV dnn (experimental, compare with gradle recall)");
+		System.out.println("  dnn: --dnn-config %prototxt% --dnn-model %caffemodel% [--dnn-input %px%=300] [--confidence %min%=0.5]");
+		System.out.println("  image is resized to dnn input, use --tile on big images to find small faces, tiles are inferred in batches");
+		System.out.println("  ResNet-SSD needs batch norm folded and Normalize layer changed to NormalizeBBox, bundled OpenCV 3.2 lacks these layers");
+		System.out.println("Boxes are drawn procedurally at exact size, --bitmap-boxes blends scaled artwork instead");
+		System.out.println("Startup: --warm-up loads detector and runs every stage once, used to train AppCDS archive (gradle cds)");
 		System.out.println("Note: full names should use -- instead of - (eg. -c, but --class)");
 		System.out.println("Classifications: irrelevant, asset, irrelevant_threat, relevant_threat, catalyst, relevant-one (!!!dash, not underscore!!!), unknown");
 		System.exit(0);
@@ -0,0 +1,196 @@
+package com.gt22.boxer;
+
+import com.gt22.boxer.utils.MatUtils;
+import com.gt22.boxer.utils.Metrics;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.javacpp.opencv_core;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.bytedeco.javacpp.opencv_core.*;
+import static org.bytedeco.javacpp.opencv_imgproc.INTER_AREA;
+import static org.bytedeco.javacpp.opencv_imgproc.resize;
+import static org.bytedeco.javacpp.opencv_objdetect.CascadeClassifier;
+
+/**
+ * Haar or LBP cascade detection engine. Neither classifier nor buffers are thread-safe, so instance must be used by one thread at a time,
+ * use {@link DetectorPool} to share engines between threads
+ */
+public class CascadeDetector implements DetectionEngine {
+	private final CascadeClassifier classifier;
+	private final Mat grey = new Mat();
+	private final Mat small = new Mat();
+	//Refinement region, reused for every coarse rect
+	private final Rect region = new Rect();
+
+	/**
+	 * @param cascade cascade xml content
+	 */
+	public CascadeDetector(byte[] cascade) {
+		FileStorage parsed = parse(cascade);
+		try {
+			classifier = load(parsed, cascade);
+		} finally {
+			parsed.release();
+		}
+	}
+
+	/**
+	 * @param parsed cascade parsed by {@link #parse(byte[])}, may be shared by detectors created on different threads
+	 * @param cascade same cascade xml, only used if it is in old haar format, which can't be read from parsed tree
+	 */
+	public CascadeDetector(FileStorage parsed, byte[] cascade) {
+		classifier = load(parsed, cascade);
+	}
+
+	/**
+	 * Parses cascade xml in memory, so many detectors can be read from one tree without parsing xml or touching file system again
+	 */
+	public static FileStorage parse(byte[] cascade) {
+		Loader.load(opencv_core.class); //Pointer below is allocated natively
+		//Source is null terminated string, parsed tree doesn't refer to it
+		BytePointer src = new BytePointer(cascade.length + 1L);
+		try {
+			src.put(cascade, 0, cascade.length).put(cascade.length, (byte) 0);
+			FileStorage ret = new FileStorage(src, FileStorage.READ | FileStorage.MEMORY);
+			if (!ret.isOpened()) throw new IllegalStateException("Unable to parse cascade");
+			return ret;
+		} finally {
+			src.deallocate();
+		}
+	}
+
+	private static CascadeClassifier load(FileStorage parsed, byte[] cascade) {
+		CascadeClassifier ret = new CascadeClassifier();
+		boolean read;
+		synchronized (parsed) { //Tree isn't modified by reading, but OpenCV doesn't promise that concurrent readers are safe
+			read = ret.read(parsed.getFirstTopLevelNode());
+		}
+		if (!read || ret.empty()) ret = loadFile(cascade);
+		if (ret.empty()) throw new IllegalStateException("Unable to load cascade");
+		return ret;
+	}
+
+	/**
+	 * Old haar cascades can only be loaded from file, file is private to process and deleted right away
+	 */
+	private static CascadeClassifier loadFile(byte[] cascade) {
+		try {
+			Path classifierFile = Files.createTempFile("haar_cascade", ".xml");
+			try {
+				Files.write(classifierFile, cascade);
+				return new CascadeClassifier(classifierFile.toAbsolutePath().toString());
+			} finally {
+				Files.delete(classifierFile);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @param img BGR, BGRA or grey image, converted to grey in reused buffer
+	 */
+	@Override
+	public RectVector detectImage(Mat img, DetectionParams params) {
+		return detect(img.channels() == 1 ? img : MatUtils.toGrey(img, grey), params);
+	}
+
+	@Override
+	public void close() {
+		classifier.deallocate();
+		grey.release();
+		small.release();
+	}
+
+	/**
+	 * @param grey single channel image
+	 * @return rects in coordinates of grey
+	 */
+	public RectVector detect(Mat grey, DetectionParams params) {
+		double scale = 1;
+		if (params.getMaxPixels() > 0 && grey.total() > params.getMaxPixels()) {
+			scale = Math.sqrt((double) params.getMaxPixels() / grey.total());
+		}
+		if (params.getPrePassScale() > 0) {
+			return refine(grey, detectScaled(grey, Math.min(scale, params.getPrePassScale()), params), params);
+		}
+		return detectScaled(grey, scale, params);
+	}
+
+	/**
+	 * Detects on downscaled copy and maps rects back
+	 */
+	private RectVector detectScaled(Mat grey, double scale, DetectionParams params) {
+		if (scale >= 1) return detectMultiScale(grey, params.getMinSize(), params.getMaxSize(), params);
+		resize(grey, small, new Size(), scale, scale, INTER_AREA);
+		RectVector o = detectMultiScale(small, (int) (params.getMinSize() * scale), (int) (params.getMaxSize() * scale), params);
+		for (int i = 0; i < o.size(); i++) {
+			Rect r = o.get(i);
+			r.x((int) (r.x() / scale));
+			r.y((int) (r.y() / scale));
+			r.width((int) (r.width() / scale));
+			r.height((int) (r.height() / scale));
+		}
+		return o;
+	}
+
+	/**
+	 * Runs full resolution detection only around coarse rects, with pyramid limited to sizes close to coarse one.
+	 * If refinement finds nothing, coarse rect is kept
+	 */
+	private RectVector refine(Mat grey, RectVector coarse, DetectionParams params) {
+		List<Rect> ret = new ArrayList<>();
+		for (int i = 0; i < coarse.size(); i++) {
+			Rect c = coarse.get(i);
+			int margin = c.width() / 2;
+			int x0 = Math.max(0, c.x() - margin), y0 = Math.max(0, c.y() - margin);
+			int x1 = Math.min(grey.cols(), c.x() + c.width() + margin), y1 = Math.min(grey.rows(), c.y() + c.height() + margin);
+			if (x0 >= x1 || y0 >= y1) continue;
+			int minSize = Math.max(params.getMinSize(), c.width() / 2);
+			int maxSize = params.getMaxSize() > 0 ? Math.min(params.getMaxSize(), c.width() * 2) : c.width() * 2;
+			Mat view = new Mat(grey, region.x(x0).y(y0).width(x1 - x0).height(y1 - y0));
+			RectVector found;
+			try {
+				found = detectMultiScale(view, minSize, maxSize, params);
+			} finally {
+				view.deallocate();
+			}
+			if (found.size() == 0) {
+				addIfNew(ret, c.x(), c.y(), c.width(), c.height());
+			}
+			for (int j = 0; j < found.size(); j++) {
+				Rect f = found.get(j);
+				addIfNew(ret, x0 + f.x(), y0 + f.y(), f.width(), f.height());
+			}
+		}
+		return new RectVector(ret.toArray(new Rect[0]));
+	}
+
+	/**
+	 * Regions of neighbouring coarse rects overlap, so same face may be found twice
+	 */
+	private static void addIfNew(List<Rect> rects, int x, int y, int w, int h) {
+		int cx = x + w / 2, cy = y + h / 2;
+		for (Rect r : rects) {
+			if (cx >= r.x() && cx < r.x() + r.width() && cy >= r.y() && cy < r.y() + r.height()) return;
+		}
+		rects.add(new Rect(x, y, w, h));
+	}
+
+	private RectVector detectMultiScale(Mat grey, int minSize, int maxSize, DetectionParams params) {
+		long start = System.nanoTime();
+		RectVector o = new RectVector();
+		classifier.detectMultiScale(grey, o, params.getScaleFactor(), params.getMinNeighbors(), 0,
+			new Size(minSize, minSize), new Size(maxSize, maxSize));
+		Metrics.Stage.DETECT_MULTI_SCALE.record(start);
+		Metrics.DETECTED_PIXELS.add(grey.total());
+		return o;
+	}
+}
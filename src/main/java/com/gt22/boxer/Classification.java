@@ -1,29 +1,48 @@
 package com.gt22.boxer;
 
+import com.gt22.boxer.utils.BoxerExecutors;
 import com.gt22.boxer.utils.ImageUtils;
-import com.gt22.randomutils.Instances;
+import com.gt22.boxer.utils.LruCache;
+import com.gt22.boxer.utils.Metrics;
+import org.jooq.lambda.Unchecked;
+import org.jooq.lambda.tuple.Tuple;
+import org.jooq.lambda.tuple.Tuple2;
 
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Future;
+import java.util.concurrent.CompletableFuture;
 
 public class Classification {
 	private static final int DEFAULT_IMAGE_SIZE = 200;
-
-	public static final Classification IRRELEVANT = new Classification("Irrelevant", "https://vignette3.wikia.nocookie.net/pediaofinterest/images/a/a1/S03-WhiteSquare.svg/revision/latest/scale-to-width-down/", Color.WHITE);
-	public static final Classification ASSET = new Classification("Asset", "https://vignette1.wikia.nocookie.net/pediaofinterest/images/a/a4/S03-YellowSquare.svg/revision/latest/scale-to-width-down/", Color.YELLOW);
-	public static final Classification ANALOG_INTERFACE = new Classification("Analog Interface", "https://vignette1.wikia.nocookie.net/pediaofinterest/images/2/2e/S03-BlackSquareYellowCorners.svg/revision/latest/scale-to-width-down/", Color.YELLOW);
-	public static final Classification IRRELEVANT_THREAT = new Classification("Irrelevant Threat", "https://vignette3.wikia.nocookie.net/pediaofinterest/images/d/d2/S03-WhiteSquareRedCorners.svg/revision/latest/scale-to-width-down/", Color.RED);
-	public static final Classification RELEVANT_THREAT = new Classification("Relevant Threat", "https://vignette4.wikia.nocookie.net/pediaofinterest/images/4/4c/S03-RedSquare.svg/revision/latest/scale-to-width-down/", Color.RED);
-	public static final Classification CATALYST = new Classification("Catalyst", "https://vignette2.wikia.nocookie.net/pediaofinterest/images/2/2e/S03-BlueSquare.svg/revision/latest/scale-to-width-down/", Color.BLUE);
-	public static final Classification RELEVANT_ONE = new Classification("Relevant-One", "https://vignette3.wikia.nocookie.net/pediaofinterest/images/a/a3/S05-BlueSquareWhiteCorners.svg/revision/latest/scale-to-width-down/", Color.BLUE);
-	public static final Classification UNKNOWN = new Classification("Unknown", "https://cdn.discordapp.com/attachments/197699632841752576/338403812576329728/classes.png", Color.GRAY);
-	public static final Classification UNRENDERABLE = new Classification("Unrenderable", "NONE", Color.BLACK);
+	//Box artwork palette, used by BoxRenderer
+	private static final Color BOX_WHITE = Color.WHITE;
+	private static final Color BOX_YELLOW = new Color(0xEEE93C);
+	private static final Color BOX_RED = new Color(0xEB1C24);
+	private static final Color BOX_BLUE = new Color(0x116BF6);
+	private static final Color BOX_BLACK = Color.BLACK;
+	//By index, filled by constructor, so it is declared before constants
+	private static final List<Classification> VALUES = new ArrayList<>();
+
+	public static final Classification IRRELEVANT = new Classification("Irrelevant", "https://vignette3.wikia.nocookie.net/pediaofinterest/images/a/a1/S03-WhiteSquare.svg/revision/latest/scale-to-width-down/", Color.WHITE, BOX_WHITE, BOX_WHITE);
+	public static final Classification ASSET = new Classification("Asset", "https://vignette1.wikia.nocookie.net/pediaofinterest/images/a/a4/S03-YellowSquare.svg/revision/latest/scale-to-width-down/", Color.YELLOW, BOX_YELLOW, BOX_YELLOW);
+	public static final Classification ANALOG_INTERFACE = new Classification("Analog Interface", "https://vignette1.wikia.nocookie.net/pediaofinterest/images/2/2e/S03-BlackSquareYellowCorners.svg/revision/latest/scale-to-width-down/", Color.YELLOW, BOX_YELLOW, BOX_BLACK);
+	public static final Classification IRRELEVANT_THREAT = new Classification("Irrelevant Threat", "https://vignette3.wikia.nocookie.net/pediaofinterest/images/d/d2/S03-WhiteSquareRedCorners.svg/revision/latest/scale-to-width-down/", Color.RED, BOX_RED, BOX_WHITE);
+	public static final Classification RELEVANT_THREAT = new Classification("Relevant Threat", "https://vignette4.wikia.nocookie.net/pediaofinterest/images/4/4c/S03-RedSquare.svg/revision/latest/scale-to-width-down/", Color.RED, BOX_RED, BOX_RED);
+	public static final Classification CATALYST = new Classification("Catalyst", "https://vignette2.wikia.nocookie.net/pediaofinterest/images/2/2e/S03-BlueSquare.svg/revision/latest/scale-to-width-down/", Color.BLUE, BOX_BLUE, BOX_BLUE);
+	public static final Classification RELEVANT_ONE = new Classification("Relevant-One", "https://vignette3.wikia.nocookie.net/pediaofinterest/images/a/a3/S05-BlueSquareWhiteCorners.svg/revision/latest/scale-to-width-down/", Color.BLUE, BOX_WHITE, BOX_BLUE);
+	public static final Classification UNKNOWN = new Classification("Unknown", "https://cdn.discordapp.com/attachments/197699632841752576/338403812576329728/classes.png", Color.GRAY, BOX_WHITE, BOX_WHITE);
+	public static final Classification UNRENDERABLE = new Classification("Unrenderable", "NONE", Color.BLACK, BOX_BLACK, BOX_BLACK);
 	private static final Map<String, Classification> CLASS_MAP = new HashMap<>();
-	private static final Map<Integer, Future<BufferedImage>> UNKNOWN_IMAGE_CACHE = new HashMap<>();
+	//Decoded images by size, futures are cached so concurrent requests share one load
+	private static final LruCache<Tuple2<Classification, Integer>, CompletableFuture<BufferedImage>> IMAGE_CACHE = new LruCache<>(64);
+	//Default image prescaled to width buckets
+	private static final LruCache<Tuple2<Classification, Integer>, BufferedImage> SCALED_CACHE = new LruCache<>(256);
+	private static final int EXACT_SCALE_LIMIT = 64;
 
 	static {
 		registerClass(IRRELEVANT);
@@ -35,17 +54,26 @@ public class Classification {
 		registerClass(RELEVANT_ONE);
 		registerClass(UNKNOWN);
 		registerClass(UNRENDERABLE);
+		Metrics.gauge("box_image_cache_hit_ratio", "Share of box artwork requests served from cache", () -> IMAGE_CACHE.getStats().getHitRate());
+		Metrics.gauge("box_scaled_cache_hit_ratio", "Share of prescaled box requests served from cache", () -> SCALED_CACHE.getStats().getHitRate());
 	}
 
 
+	private final int index;
 	private final String name;
 	private final String img;
 	private final Color color;
+	private final Color cornerColor;
+	private final Color lineColor;
 
-	private Classification(String name, String img, Color color) {
+	private Classification(String name, String img, Color color, Color cornerColor, Color lineColor) {
+		this.index = VALUES.size();
+		VALUES.add(this);
 		this.name = name;
 		this.img = img;
 		this.color = color;
+		this.cornerColor = cornerColor;
+		this.lineColor = lineColor;
 	}
 
 	private static void registerClass(Classification classification) {
@@ -70,6 +98,17 @@ public class Classification {
 	}
 
 
+	/**
+	 * @return compact id of classification, stable within process, see {@link #byIndex(int)}
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	public static Classification byIndex(int index) {
+		return VALUES.get(index);
+	}
+
 	public String getName() {
 		return name;
 	}
@@ -78,51 +117,82 @@ public class Classification {
 		return name.toLowerCase().replace(' ', '_');
 	}
 
-	public Future<BufferedImage> getImg() {
-		return getImg(DEFAULT_IMAGE_SIZE);
+	public CompletableFuture<BufferedImage> getImgAsync() {
+		return getImgAsync(DEFAULT_IMAGE_SIZE);
+	}
+
+	public CompletableFuture<BufferedImage> getImgAsync(int size) {
+		Tuple2<Classification, Integer> key = Tuple.tuple(this, size);
+		CompletableFuture<BufferedImage> ret = IMAGE_CACHE.get(key, k -> {
+			long start = System.nanoTime();
+			CompletableFuture<BufferedImage> load = loadImg(size).whenComplete((img, e) -> Metrics.Stage.BOX_LOAD.record(start));
+			//Failed load isn't kept, so transient error doesn't make image unavailable until restart
+			load.whenComplete((img, e) -> {
+				if (e != null) IMAGE_CACHE.remove(k, load);
+			});
+			return load;
+		});
+		//Load that failed before it was cached is removed by next request
+		if (ret.isCompletedExceptionally()) IMAGE_CACHE.remove(key, ret);
+		return ret;
+	}
+
+	/**
+	 * @return default image prescaled to width bucket close to requested width, so drawing it at that width costs almost no scaling
+	 */
+	public BufferedImage getScaledImg(int width) {
+		int bucket = bucket(width);
+		return SCALED_CACHE.get(Tuple.tuple(this, bucket), k -> {
+			BufferedImage img = getImgAsync().join();
+			long start = System.nanoTime();
+			BufferedImage ret = ImageUtils.resize(img, bucket, bucket);
+			Metrics.Stage.BOX_LOAD.record(start);
+			return ret;
+		});
 	}
 
-	public Future<BufferedImage> getImg(int size) {
+	/**
+	 * Small widths are exact, bigger ones are rounded up with step of 1/32..1/16 of width
+	 */
+	private static int bucket(int width) {
+		if (width <= EXACT_SCALE_LIMIT) return Math.max(1, width);
+		int step = Integer.highestOneBit(width) >> 5;
+		return (width + step - 1) / step * step;
+	}
+
+	public static String getCacheStats() {
+		return "images: " + IMAGE_CACHE.getStats() + "; scaled: " + SCALED_CACHE.getStats();
+	}
+
+	private CompletableFuture<BufferedImage> loadImg(int size) {
 		if (size == DEFAULT_IMAGE_SIZE) { //Preloaded image in resources
-			return Instances.getExecutor().submit(() ->
-				ImageIO.read(getClass().getResourceAsStream("/boxes/" + getUnlocName() + ".png")));
+			return CompletableFuture.supplyAsync(Unchecked.supplier(() ->
+				ImageIO.read(getClass().getResourceAsStream("/boxes/" + getUnlocName() + ".png"))), BoxerExecutors.io());
 		}
 		if (this == UNRENDERABLE) {
 			throw new IllegalArgumentException("Can't get unrenderable from with size other than default (" + DEFAULT_IMAGE_SIZE + ")");
 		} else if (this == UNKNOWN) {
-			if (UNKNOWN_IMAGE_CACHE.containsKey(size)) {
-				return UNKNOWN_IMAGE_CACHE.get(size);
-			} else {
-				Future<BufferedImage> f = Instances.getExecutor().submit(() -> {
-					int half = size / 2;
-					Future<BufferedImage> //Start all requests asynchronously
-						irr = IRRELEVANT.getImg(size),
-						trr = RELEVANT_THREAT.getImg(size),
-						ctr = CATALYST.getImg(size),
-						asr = ASSET.getImg(size);
-
-					BufferedImage //Await request completion
-						ir = irr.get(),
-						tr = trr.get(),
-						ct = ctr.get(),
-						as = asr.get();
-
-					BufferedImage res = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
-					Graphics2D g = res.createGraphics();
-					//top left
-					drawImagePart(g, ir, 0, 0, half, half);
-					//top right
-					drawImagePart(g, tr, half, 0, size, half);
-					//Bottom left
-					drawImagePart(g, ct, 0, half, half, size);
-					//Bottom right
-					drawImagePart(g, as, half, half, size, size);
-					g.dispose();
-					return res;
-				});
-				UNKNOWN_IMAGE_CACHE.put(size, f);
-				return f;
-			}
+			//All parts are requested at once, composite is drawn when last of them arrives
+			CompletableFuture<BufferedImage>
+				irr = IRRELEVANT.getImgAsync(size),
+				trr = RELEVANT_THREAT.getImgAsync(size),
+				ctr = CATALYST.getImgAsync(size),
+				asr = ASSET.getImgAsync(size);
+			return CompletableFuture.allOf(irr, trr, ctr, asr).thenApplyAsync(v -> {
+				int half = size / 2;
+				BufferedImage res = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+				Graphics2D g = res.createGraphics();
+				//top left
+				drawImagePart(g, irr.join(), 0, 0, half, half);
+				//top right
+				drawImagePart(g, trr.join(), half, 0, size, half);
+				//Bottom left
+				drawImagePart(g, ctr.join(), 0, half, half, size);
+				//Bottom right
+				drawImagePart(g, asr.join(), half, half, size, size);
+				g.dispose();
+				return res;
+			}, BoxerExecutors.cpu());
 		}
 		return ImageUtils.readImg(img + size);
 	}
@@ -131,6 +201,20 @@ public class Classification {
 		return color;
 	}
 
+	/**
+	 * @return color of corner brackets and mid-side ticks of box
+	 */
+	public Color getCornerColor() {
+		return cornerColor;
+	}
+
+	/**
+	 * @return color of dashed sides of box
+	 */
+	public Color getLineColor() {
+		return lineColor;
+	}
+
 	private static void drawImagePart(Graphics2D g, BufferedImage img, int x1, int y1, int x2, int y2) {
 		g.drawImage(img, x1, y1, x2, y2, x1, y1, x2, y2, null);
 	}
@@ -0,0 +1,96 @@
+package com.gt22.boxer;
+
+import com.gt22.boxer.utils.DiskCache;
+import com.gt22.boxer.utils.LruCache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Detection results by content hash, engine and detection params, so repeated images skip detection.
+ * Memory tier is LRU, optional disk tier survives restarts and may be shared by several processes.
+ * Values are packed int arrays, their layout is defined by key namespace (see {@link #key(String, String, DetectionParams)})
+ */
+public class DetectionCache {
+	private final LruCache<String, int[]> memory;
+	private final DiskCache disk;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder diskHits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * @param diskDir directory of disk tier, null to keep results only in memory
+	 */
+	public DetectionCache(int memoryEntries, Path diskDir, long diskBytes) throws IOException {
+		this.memory = new LruCache<>(memoryEntries);
+		this.disk = diskDir == null ? null : new DiskCache(diskDir, diskBytes);
+	}
+
+	/**
+	 * @param namespace kind of content hash and value layout, eg. "px" for decoded pixels with raw packed rects as value
+	 */
+	public static String key(String namespace, String contentHash, DetectionParams params) {
+		return namespace + ':' + contentHash + ':' + FacialDetector.getEngine() + ':' + params;
+	}
+
+	/**
+	 * @return cached value, or null on miss. Returned array is shared and shouldn't be modified
+	 */
+	public int[] get(String key) {
+		int[] ret = memory.get(key);
+		if (ret == null && disk != null) {
+			ByteBuffer stored = disk.get(key);
+			if (stored != null) {
+				IntBuffer ints = stored.asIntBuffer();
+				ret = new int[ints.remaining()];
+				ints.get(ret);
+				memory.put(key, ret);
+				diskHits.increment();
+			}
+		}
+		(ret == null ? misses : hits).increment();
+		return ret;
+	}
+
+	public void put(String key, int[] value) {
+		memory.put(key, value);
+		if (disk != null) {
+			ByteBuffer buf = ByteBuffer.allocate(value.length * 4);
+			buf.asIntBuffer().put(value);
+			disk.put(key, buf.array());
+		}
+	}
+
+	public Stats getStats() {
+		return new Stats(hits.sum(), diskHits.sum(), misses.sum(), memory.size());
+	}
+
+	public static class Stats {
+		public final long hits;
+		/** Hits served from disk tier, included in hits */
+		public final long diskHits;
+		public final long misses;
+		public final int memoryEntries;
+
+		Stats(long hits, long diskHits, long misses, int memoryEntries) {
+			this.hits = hits;
+			this.diskHits = diskHits;
+			this.misses = misses;
+			this.memoryEntries = memoryEntries;
+		}
+
+		public double getHitRate() {
+			long total = hits + misses;
+			return total == 0 ? 0 : (double) hits / total;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("hits: %d (%d from disk), misses: %d (%.1f%% hit rate), in memory: %d", hits, diskHits, misses, getHitRate() * 100, memoryEntries);
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package com.gt22.boxer;
+
+import static org.bytedeco.javacpp.opencv_core.Mat;
+import static org.bytedeco.javacpp.opencv_core.RectVector;
+
+/**
+ * Face detection backend. Engines aren't thread-safe, so instance must be used by one thread at a time,
+ * use {@link DetectorPool} to share engines between threads
+ */
+public interface DetectionEngine extends AutoCloseable {
+	/**
+	 * @param img BGR, BGRA or grey image
+	 * @return rects in coordinates of img, not filtered
+	 */
+	RectVector detectImage(Mat img, DetectionParams params);
+
+	/**
+	 * Detects on several images at once, engines that infer in batches override it
+	 * @return rects of every image, in order of images
+	 */
+	default RectVector[] detectImages(Mat[] imgs, DetectionParams params) {
+		RectVector[] ret = new RectVector[imgs.length];
+		for (int i = 0; i < imgs.length; i++) {
+			ret[i] = detectImage(imgs[i], params);
+		}
+		return ret;
+	}
+
+	/**
+	 * Frees native memory of engine right away instead of on GC, engine can't be used afterwards
+	 */
+	@Override
+	default void close() {
+	}
+}
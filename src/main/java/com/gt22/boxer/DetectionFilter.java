@@ -0,0 +1,25 @@
+package com.gt22.boxer;
+
+import com.gt22.boxer.utils.RectUtils;
+
+/**
+ * Post-processing of raw detections on packed rects: size filter, then suppression or merging of rects of same face.
+ * Pyramid levels and pre-pass refinement may produce rects out of size limits, and same face is sometimes found at two scales
+ */
+class DetectionFilter {
+	//Face found at two scales gives small rect inside big one, IoU of such pair is low
+	private static final double CONTAINMENT_THRESHOLD = 0.7;
+
+	/**
+	 * @return filtered rects, may be same array if nothing changed
+	 */
+	static int[] apply(int[] rects, DetectionParams params) {
+		int[] ret = RectUtils.filterSize(rects, params.getMinSize(), params.getMaxSize());
+		if (params.getOverlapThreshold() > 0 && ret.length > 4) {
+			ret = params.isMergeOverlaps()
+				? RectUtils.merge(ret, params.getOverlapThreshold(), CONTAINMENT_THRESHOLD)
+				: RectUtils.suppress(ret, params.getOverlapThreshold(), CONTAINMENT_THRESHOLD);
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,165 @@
+package com.gt22.boxer;
+
+/**
+ * Cascade pyramid settings, dnn confidence, large image handling and post-processing of detections.
+ * Sizes are in pixels of original image, 0 means not limited
+ */
+public class DetectionParams {
+	private double scaleFactor = 1.1;
+	private int minNeighbors = 3;
+	private int minSize = 0;
+	private int maxSize = 0;
+	private double prePassScale = 0;
+	private long maxPixels = 0;
+	private int tileSize = 0;
+	private double overlapThreshold = 0.3;
+	private boolean mergeOverlaps = false;
+	private double confidence = 0.5;
+
+	public DetectionParams() {
+	}
+
+	public DetectionParams(DetectionParams other) {
+		scaleFactor = other.scaleFactor;
+		minNeighbors = other.minNeighbors;
+		minSize = other.minSize;
+		maxSize = other.maxSize;
+		prePassScale = other.prePassScale;
+		maxPixels = other.maxPixels;
+		tileSize = other.tileSize;
+		overlapThreshold = other.overlapThreshold;
+		mergeOverlaps = other.mergeOverlaps;
+		confidence = other.confidence;
+	}
+
+	/**
+	 * Step between pyramid levels, bigger step is faster but may miss faces
+	 */
+	public DetectionParams scaleFactor(double scaleFactor) {
+		if (scaleFactor <= 1) throw new IllegalArgumentException("Scale factor should be greater than 1, got " + scaleFactor);
+		this.scaleFactor = scaleFactor;
+		return this;
+	}
+
+	public DetectionParams minNeighbors(int minNeighbors) {
+		if (minNeighbors < 0) throw new IllegalArgumentException("Min neighbors should not be negative, got " + minNeighbors);
+		this.minNeighbors = minNeighbors;
+		return this;
+	}
+
+	public DetectionParams minSize(int minSize) {
+		if (minSize < 0) throw new IllegalArgumentException("Min size should not be negative, got " + minSize);
+		this.minSize = minSize;
+		return this;
+	}
+
+	public DetectionParams maxSize(int maxSize) {
+		if (maxSize < 0) throw new IllegalArgumentException("Max size should not be negative, got " + maxSize);
+		this.maxSize = maxSize;
+		return this;
+	}
+
+	/**
+	 * Enables pre-pass: faces are searched on image downscaled by this factor, then refined on full resolution only around found faces.
+	 * 0 disables pre-pass
+	 */
+	public DetectionParams prePassScale(double prePassScale) {
+		if (prePassScale < 0 || prePassScale >= 1) throw new IllegalArgumentException("Pre-pass scale should be in [0, 1), got " + prePassScale);
+		this.prePassScale = prePassScale;
+		return this;
+	}
+
+	/**
+	 * Images (or pre-pass images) bigger than that are downscaled before detection, so detection time is bounded regardless of input size
+	 */
+	public DetectionParams maxPixels(long maxPixels) {
+		if (maxPixels < 0) throw new IllegalArgumentException("Max pixels should not be negative, got " + maxPixels);
+		this.maxPixels = maxPixels;
+		return this;
+	}
+
+	/**
+	 * Images bigger than tile are split into overlapping tiles detected in parallel.
+	 * Overlap is max size if set (but no more than half of tile), otherwise quarter of tile, faces bigger than overlap may be missed on tile borders.
+	 * 0 disables tiling
+	 */
+	public DetectionParams tileSize(int tileSize) {
+		if (tileSize < 0) throw new IllegalArgumentException("Tile size should not be negative, got " + tileSize);
+		this.tileSize = tileSize;
+		return this;
+	}
+
+	/**
+	 * Detections with IoU above that, or mostly lying inside bigger one, are treated as same face and only biggest is kept.
+	 * Compared before expansion, so neighbouring faces aren't dropped just because their boxes overlap. 0 disables
+	 */
+	public DetectionParams overlapThreshold(double overlapThreshold) {
+		if (overlapThreshold < 0 || overlapThreshold >= 1) throw new IllegalArgumentException("Overlap threshold should be in [0, 1), got " + overlapThreshold);
+		this.overlapThreshold = overlapThreshold;
+		return this;
+	}
+
+	/**
+	 * Overlapping detections of same face are replaced by their mean instead of biggest one
+	 */
+	public DetectionParams mergeOverlaps(boolean mergeOverlaps) {
+		this.mergeOverlaps = mergeOverlaps;
+		return this;
+	}
+
+	/**
+	 * Dnn detections less confident than that are dropped, cascade ignores it
+	 */
+	public DetectionParams confidence(double confidence) {
+		if (confidence < 0 || confidence > 1) throw new IllegalArgumentException("Confidence should be in [0, 1], got " + confidence);
+		this.confidence = confidence;
+		return this;
+	}
+
+	public double getScaleFactor() {
+		return scaleFactor;
+	}
+
+	public int getMinNeighbors() {
+		return minNeighbors;
+	}
+
+	public int getMinSize() {
+		return minSize;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public double getPrePassScale() {
+		return prePassScale;
+	}
+
+	public long getMaxPixels() {
+		return maxPixels;
+	}
+
+	public int getTileSize() {
+		return tileSize;
+	}
+
+	public double getOverlapThreshold() {
+		return overlapThreshold;
+	}
+
+	public boolean isMergeOverlaps() {
+		return mergeOverlaps;
+	}
+
+	public double getConfidence() {
+		return confidence;
+	}
+
+	@Override
+	public String toString() {
+		return "scale factor: " + scaleFactor + ", min neighbors: " + minNeighbors + ", min size: " + minSize + ", max size: " + maxSize
+			+ ", pre-pass: " + prePassScale + ", max pixels: " + maxPixels + ", tile: " + tileSize
+			+ ", overlap: " + overlapThreshold + (mergeOverlaps ? " merged" : "") + ", confidence: " + confidence;
+	}
+}
@@ -0,0 +1,196 @@
+package com.gt22.boxer;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Pool of detection engines, engines are created lazily up to max size.
+ * When all engines are busy caller waits for one to be released, wait time is recorded in {@link Stats}.
+ * Engines dropped by shrinking or closing pool are closed
+ */
+public class DetectorPool<T extends DetectionEngine> {
+	//Waiting callers check this often whether pool was closed, engines released to closed pool are closed instead of handed over
+	private static final long CLOSED_CHECK_MILLIS = 100;
+
+	private final BlockingQueue<T> idle = new LinkedBlockingQueue<>();
+	private final AtomicInteger created = new AtomicInteger();
+	private final Supplier<T> factory;
+	private volatile int maxSize;
+	private volatile boolean closed;
+
+	private final LongAdder acquisitions = new LongAdder();
+	private final LongAdder contended = new LongAdder();
+	private final LongAdder waitNanos = new LongAdder();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+
+	public DetectorPool(int maxSize, Supplier<T> factory) {
+		setMaxSize(maxSize);
+		this.factory = factory;
+	}
+
+	/**
+	 * Limits amount of engines. Shrinking drops idle engines right away and busy ones once they are released
+	 */
+	public void setMaxSize(int maxSize) {
+		if (maxSize <= 0) throw new IllegalArgumentException("Pool size should be positive, got " + maxSize);
+		this.maxSize = maxSize;
+		T engine;
+		while (created.get() > maxSize && (engine = idle.poll()) != null) {
+			release(engine);
+		}
+	}
+
+	/**
+	 * Closes idle engines, busy ones are closed once they are released.
+	 * Pool may still be used by detections that got it before, they create engines that are closed on release
+	 */
+	public void close() {
+		closed = true;
+		closeIdle();
+	}
+
+	private void closeIdle() {
+		T engine;
+		while ((engine = idle.poll()) != null) {
+			created.decrementAndGet();
+			engine.close();
+		}
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public T acquire() throws InterruptedException {
+		acquisitions.increment();
+		T ret = idle.poll();
+		if (ret != null) return ret;
+		ret = tryCreate();
+		if (ret != null) return ret;
+		contended.increment();
+		long start = System.nanoTime();
+		while ((ret = idle.poll(CLOSED_CHECK_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+			if ((ret = tryCreate()) != null) break; //Pool may have grown while waiting
+			if (closed) { //Busy engines won't come back
+				created.incrementAndGet();
+				try {
+					ret = factory.get();
+				} catch (RuntimeException | Error e) {
+					created.decrementAndGet();
+					throw e;
+				}
+				break;
+			}
+		}
+		long waited = System.nanoTime() - start;
+		waitNanos.add(waited);
+		maxWaitNanos.accumulateAndGet(waited, Math::max);
+		return ret;
+	}
+
+	/**
+	 * @return new engine, or null if pool is already at max size
+	 */
+	private T tryCreate() {
+		int c;
+		while ((c = created.get()) < maxSize) {
+			if (created.compareAndSet(c, c + 1)) {
+				try {
+					return factory.get();
+				} catch (RuntimeException | Error e) {
+					created.decrementAndGet();
+					throw e;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Creates engines up to count (or max size if it is smaller) ahead of time, so first requests don't pay for their creation
+	 */
+	public void prestart(int count) {
+		int c;
+		while ((c = created.get()) < Math.min(count, maxSize)) {
+			if (created.compareAndSet(c, c + 1)) {
+				try {
+					idle.add(factory.get());
+				} catch (RuntimeException | Error e) {
+					created.decrementAndGet();
+					throw e;
+				}
+			}
+		}
+	}
+
+	public void release(T engine) {
+		if (closed) {
+			created.decrementAndGet();
+			engine.close();
+		} else if (dropExcess()) {
+			engine.close();
+		} else {
+			idle.add(engine);
+			if (closed) closeIdle(); //Pool was closed while engine was added
+		}
+	}
+
+	/**
+	 * @return true if pool was shrunk and engine being released should be closed
+	 */
+	private boolean dropExcess() {
+		int c;
+		while ((c = created.get()) > maxSize) {
+			if (created.compareAndSet(c, c - 1)) return true;
+		}
+		return false;
+	}
+
+	public <R> R with(Function<T, R> action) throws InterruptedException {
+		T engine = acquire();
+		try {
+			return action.apply(engine);
+		} finally {
+			release(engine);
+		}
+	}
+
+	public Stats getStats() {
+		return new Stats(acquisitions.sum(), contended.sum(), waitNanos.sum(), maxWaitNanos.get(), created.get(), idle.size());
+	}
+
+	public static class Stats {
+		public final long acquisitions;
+		/** Acquisitions that had to wait for engine to be released */
+		public final long contended;
+		public final long totalWaitNanos;
+		public final long maxWaitNanos;
+		public final int created;
+		public final int idle;
+
+		Stats(long acquisitions, long contended, long totalWaitNanos, long maxWaitNanos, int created, int idle) {
+			this.acquisitions = acquisitions;
+			this.contended = contended;
+			this.totalWaitNanos = totalWaitNanos;
+			this.maxWaitNanos = maxWaitNanos;
+			this.created = created;
+			this.idle = idle;
+		}
+
+		public double getAverageWaitMillis() {
+			return contended == 0 ? 0 : totalWaitNanos / 1e6 / contended;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("engines: %d (%d idle), acquisitions: %d, waited: %d, avg wait: %.2fms, max wait: %.2fms",
+				created, idle, acquisitions, contended, getAverageWaitMillis(), maxWaitNanos / 1e6);
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package com.gt22.boxer;
+
+import com.gt22.boxer.utils.Metrics;
+import com.gt22.boxer.utils.RectUtils;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.bytedeco.javacpp.opencv_core.*;
+import static org.bytedeco.javacpp.opencv_dnn.*;
+import static org.bytedeco.javacpp.opencv_imgproc.INTER_AREA;
+import static org.bytedeco.javacpp.opencv_imgproc.resize;
+
+/**
+ * Caffe SSD detection engine on OpenCV dnn, made for ResNet-SSD face model (res10_300x300_ssd).
+ * Image is resized to square input, so faces much smaller than image are missed, big images should be tiled.
+ * Several images (eg. tiles) are inferred on CPU as one batched blob.
+ * OpenCV 3.2 net keeps buffers of its first input shape, so every batch size, rounded up to power of two, gets its own net.
+ * OpenCV 3.2 dnn lacks BatchNorm, Scale and Normalize layers and reads older SSD prototxt schema, so stock ResNet-SSD needs
+ * batch norm folded into convolutions, Normalize replaced by NormalizeBBox and nms_param fields moved to detection_output_param.
+ * Experimental: its speed and recall against bundled cascade haven't been measured yet, <code>gradle recall</code> measures them
+ * on synthetic or annotated images.
+ * Not thread-safe, see {@link DetectorPool}
+ */
+public class DnnDetector implements DetectionEngine {
+	//Per channel mean of BGR images model was trained on
+	private static final double[] MEAN = {104, 177, 123};
+	private static final String INPUT = ".data";
+	private static final String OUTPUT = "detection_out";
+	//Output row is image index in batch, label, confidence and corners relative to image size
+	private static final int ROW = 7;
+	//OpenCV 3.2 DetectionOutput fails if nothing passes its own confidence threshold
+	private static final String NO_DETECTIONS = "Couldn't find any detections";
+
+	private final String config;
+	private final String model;
+	private final int inputSize;
+	private final int maxBatch;
+	//By log2 of batch size, created on first batch of that size
+	private final Net[] nets;
+	private final Blob[] blobs;
+	private final Mat resized = new Mat();
+	private final MatVector planes = new MatVector();
+
+	/**
+	 * @param config prototxt of net
+	 * @param model caffemodel with weights
+	 * @param inputSize side of square net input
+	 * @param maxBatch max amount of images inferred at once, rounded down to power of two
+	 */
+	public DnnDetector(Path config, Path model, int inputSize, int maxBatch) {
+		if (inputSize <= 0) throw new IllegalArgumentException("Input size should be positive, got " + inputSize);
+		if (maxBatch <= 0) throw new IllegalArgumentException("Batch size should be positive, got " + maxBatch);
+		this.config = config.toString();
+		this.model = model.toString();
+		this.inputSize = inputSize;
+		this.maxBatch = Integer.highestOneBit(maxBatch);
+		nets = new Net[Integer.numberOfTrailingZeros(this.maxBatch) + 1];
+		blobs = new Blob[nets.length];
+		//Missing files and unsupported layers fail here instead of on first detection
+		load(0);
+		try {
+			forward(nets[0]);
+		} catch (RuntimeException e) {
+			throw new IllegalStateException("Dnn model " + model + " can't run on OpenCV dnn: " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public RectVector detectImage(Mat img, DetectionParams params) {
+		return detectImages(new Mat[]{img}, params)[0];
+	}
+
+	@Override
+	public RectVector[] detectImages(Mat[] imgs, DetectionParams params) {
+		RectVector[] ret = new RectVector[imgs.length];
+		for (int from = 0; from < imgs.length; from += maxBatch) {
+			infer(imgs, from, Math.min(maxBatch, imgs.length - from), params, ret);
+		}
+		return ret;
+	}
+
+	@Override
+	public void close() {
+		for (int i = 0; i < nets.length; i++) {
+			if (nets[i] == null) continue;
+			nets[i].deallocate();
+			blobs[i].deallocate();
+		}
+		resized.release();
+		planes.deallocate();
+	}
+
+	private void infer(Mat[] imgs, int from, int count, DetectionParams params, RectVector[] ret) {
+		long start = System.nanoTime();
+		int level = 32 - Integer.numberOfLeadingZeros(count - 1);
+		load(level);
+		Blob blob = blobs[level];
+		for (int i = 0; i < count; i++) {
+			fill(blob, i, imgs[from + i]);
+		}
+		//Padding images of smaller batch keep previous content, their detections are skipped
+		nets[level].setBlob(INPUT, blob);
+		float[] rows = new float[0];
+		if (forward(nets[level])) {
+			Blob out = nets[level].getBlob(OUTPUT);
+			rows = new float[(int) out.total()];
+			out.ptrf().get(rows);
+		}
+		Metrics.Stage.DNN_FORWARD.record(start);
+		Metrics.DETECTED_PIXELS.add((long) count * inputSize * inputSize);
+
+		int[][] rects = new int[count][];
+		int[] found = new int[count];
+		for (int r = 0; r + ROW <= rows.length; r += ROW) {
+			int i = (int) rows[r];
+			//No detections is reported as single row with negative index
+			if (i < 0 || i >= count || rows[r + 2] < params.getConfidence()) continue;
+			Mat img = imgs[from + i];
+			int x0 = clamp(rows[r + 3] * img.cols(), img.cols()), y0 = clamp(rows[r + 4] * img.rows(), img.rows());
+			int x1 = clamp(rows[r + 5] * img.cols(), img.cols()), y1 = clamp(rows[r + 6] * img.rows(), img.rows());
+			if (x1 <= x0 || y1 <= y0) continue;
+			if (rects[i] == null) rects[i] = new int[16];
+			else if (found[i] == rects[i].length) rects[i] = Arrays.copyOf(rects[i], found[i] * 2);
+			rects[i][found[i]++] = x0;
+			rects[i][found[i]++] = y0;
+			rects[i][found[i]++] = x1 - x0;
+			rects[i][found[i]++] = y1 - y0;
+		}
+		for (int i = 0; i < count; i++) {
+			ret[from + i] = RectUtils.unpack(rects[i] == null ? new int[0] : rects[i], found[i] / 4);
+		}
+	}
+
+	/**
+	 * Resizes image into i-th image of blob, BGR channel planes minus mean
+	 */
+	private void fill(Blob blob, int i, Mat img) {
+		resize(img, resized, new Size(inputSize, inputSize), 0, 0, INTER_AREA);
+		split(resized, planes);
+		for (int c = 0; c < 3; c++) {
+			//Grey image gives same plane to every channel, alpha is ignored
+			planes.get(Math.min(c, planes.size() - 1)).convertTo(blob.getPlane(i, c), CV_32F, 1, -MEAN[c]);
+		}
+	}
+
+	private void load(int level) {
+		if (nets[level] != null) return;
+		Net net = readNetFromCaffe(config, model);
+		if (net.empty()) throw new IllegalStateException("Unable to load dnn model " + model + " described by " + config);
+		Blob blob = new Blob(new BlobShape(1 << level, 3, inputSize, inputSize));
+		blob.matRef().put(new Scalar(0.0)); //Padding images of first batch
+		net.setBlob(INPUT, blob);
+		nets[level] = net;
+		blobs[level] = blob;
+	}
+
+	/**
+	 * @return false if net found nothing
+	 */
+	private static boolean forward(Net net) {
+		try {
+			net.forward();
+			return true;
+		} catch (RuntimeException e) {
+			if (e.getMessage() != null && e.getMessage().contains(NO_DETECTIONS)) return false;
+			throw e;
+		}
+	}
+
+	private static int clamp(float v, int max) {
+		return Math.max(0, Math.min(max, Math.round(v)));
+	}
+}
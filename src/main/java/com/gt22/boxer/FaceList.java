@@ -0,0 +1,88 @@
+package com.gt22.boxer;
+
+import com.gt22.boxer.utils.RectUtils;
+
+import java.awt.*;
+import java.util.Arrays;
+
+import static org.bytedeco.javacpp.opencv_core.RectVector;
+
+/**
+ * Detected faces as primitive arrays: rects packed as in {@link RectUtils} and index of classification of every face.
+ * Thousands of faces cost two arrays instead of native Rect and wrapper object per face.
+ * Rects are fixed after construction, classifications may be changed
+ */
+public class FaceList {
+	private final int[] rects;
+	private final byte[] classes;
+
+	/**
+	 * @param rects packed rects, array isn't copied
+	 * @param clazz initial classification of all faces
+	 */
+	public FaceList(int[] rects, Classification clazz) {
+		if (rects.length % 4 != 0) throw new IllegalArgumentException("Packed rects length should be multiple of 4, got " + rects.length);
+		this.rects = rects;
+		this.classes = new byte[rects.length / 4];
+		Arrays.fill(classes, (byte) clazz.getIndex());
+	}
+
+	public static FaceList of(RectVector rects, Classification clazz) {
+		return new FaceList(RectUtils.pack(rects), clazz);
+	}
+
+	public int size() {
+		return classes.length;
+	}
+
+	public int x(int i) {
+		return rects[i * 4];
+	}
+
+	public int y(int i) {
+		return rects[i * 4 + 1];
+	}
+
+	public int width(int i) {
+		return rects[i * 4 + 2];
+	}
+
+	public int height(int i) {
+		return rects[i * 4 + 3];
+	}
+
+	public Classification getClassification(int i) {
+		return Classification.byIndex(classes[i]);
+	}
+
+	public void setClassification(int i, Classification clazz) {
+		classes[i] = (byte) clazz.getIndex();
+	}
+
+	/**
+	 * @return backing packed rects, shouldn't be modified
+	 */
+	public int[] rects() {
+		return rects;
+	}
+
+	public RectVector toRectVector() {
+		return RectUtils.unpack(rects, size());
+	}
+
+	/**
+	 * Draws box of face i, rect should be already squared, but just to be sure width also used as height
+	 */
+	public void draw(Graphics2D g, int i) {
+		BoxRenderer.draw(g, getClassification(i), x(i), y(i), width(i));
+	}
+
+	/**
+	 * Draws boxes of all faces except unrenderable ones
+	 */
+	public void drawAll(Graphics2D g) {
+		for (int i = 0; i < size(); i++) {
+			if (classes[i] != Classification.UNRENDERABLE.getIndex()) draw(g, i);
+		}
+	}
+}
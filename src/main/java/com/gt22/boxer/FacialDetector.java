@@ -1,73 +1,278 @@
 package com.gt22.boxer;
 
-import org.bytedeco.javacv.Java2DFrameConverter;
-import org.bytedeco.javacv.OpenCVFrameConverter;
+import com.gt22.boxer.utils.BoxerExecutors;
+import com.gt22.boxer.utils.Hasher;
+import com.gt22.boxer.utils.MatUtils;
+import com.gt22.boxer.utils.Metrics;
+import com.gt22.boxer.utils.RectUtils;
 import org.jooq.lambda.Unchecked;
 
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UncheckedIOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
 import static org.bytedeco.javacpp.opencv_core.*;
-import static org.bytedeco.javacpp.opencv_imgproc.CV_BGR2GRAY;
-import static org.bytedeco.javacpp.opencv_imgproc.cvtColor;
-import static org.bytedeco.javacpp.opencv_objdetect.CascadeClassifier;
 
 
 public class FacialDetector {
+	private static final byte[] cascade;
+	private static volatile Engines engines;
+	private static volatile DetectionCache cache;
 
-	public static class Face {
+	static {
+		try (InputStream in = FacialDetector.class.getResourceAsStream("/cascade.xml")) {
+			ByteArrayOutputStream buf = new ByteArrayOutputStream();
+			byte[] chunk = new byte[8192];
+			int read;
+			while ((read = in.read(chunk)) > 0) {
+				buf.write(chunk, 0, read);
+			}
+			cascade = buf.toByteArray();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		int poolSize = Integer.getInteger("boxer.detectors", Runtime.getRuntime().availableProcessors());
+		engines = cascadeEngines(poolSize);
+		//Async detection runs on as many threads as there are detectors, so its tasks queue up instead of parking on pool
+		BoxerExecutors.setDetectionThreads(poolSize);
+		Metrics.gauge("detectors", "Loaded detection engines", () -> engines.pool.getStats().created);
+		Metrics.gauge("detectors_idle", "Detection engines not in use", () -> engines.pool.getStats().idle);
+		Metrics.counter("detector_waits_total", "Detections that waited for free engine", () -> engines.pool.getStats().contended);
+		Metrics.counter("detector_wait_seconds_total", "Time spent waiting for free engine", () -> engines.pool.getStats().totalWaitNanos / 1e9);
+		Metrics.counter("detection_cache_hits_total", "Detections served from cache, disk hits included", () -> cache == null ? 0 : cache.getStats().hits);
+		Metrics.counter("detection_cache_disk_hits_total", "Detections served from disk cache", () -> cache == null ? 0 : cache.getStats().diskHits);
+		Metrics.counter("detection_cache_misses_total", "Detections not found in cache", () -> cache == null ? 0 : cache.getStats().misses);
+		Metrics.gauge("detection_cache_hit_ratio", "Share of detections served from cache", () -> cache == null ? 0 : cache.getStats().getHitRate());
+	}
+
+	/**
+	 * Cascade is parsed on first detector creation, so referencing FacialDetector doesn't load natives
+	 */
+	private static class ParsedCascade {
+		static final FileStorage storage = CascadeDetector.parse(cascade);
+	}
 
-		Face(Rect rect, Classification box) throws ExecutionException, InterruptedException {
-			this.rect = rect;
-			this.box = box;
-			this.boxImg = box.getImg().get();
+	/**
+	 * Pool of engines of one kind and traits detection needs before acquiring engine
+	 */
+	private static class Engines {
+		final String name;
+		/** Engine works on grey images, so image split into tiles is converted once */
+		final boolean grey;
+		/** Amount of tiles worth passing to engine at once */
+		final int batch;
+		final DetectorPool<DetectionEngine> pool;
+
+		Engines(String name, boolean grey, int batch, int poolSize, Supplier<DetectionEngine> factory) {
+			this.name = name;
+			this.grey = grey;
+			this.batch = batch;
+			this.pool = new DetectorPool<>(poolSize, factory);
 		}
+	}
 
-		public Rect rect;
-		public Classification box;
-		public BufferedImage boxImg;
+	private static Engines cascadeEngines(int poolSize) {
+		return new Engines("cascade", true, 1, poolSize, () -> new CascadeDetector(ParsedCascade.storage, cascade));
 	}
 
-	private static final CascadeClassifier classifier;
-	private static final Java2DFrameConverter imgConv = new Java2DFrameConverter();
-	private static final OpenCVFrameConverter.ToMat matConv = new OpenCVFrameConverter.ToMat();
+	/**
+	 * Switches back to bundled cascade, which is used by default
+	 */
+	public static void useCascade() {
+		swap(cascadeEngines(engines.pool.getMaxSize()));
+	}
 
-	static {
+	/**
+	 * Switches to Caffe SSD model on OpenCV dnn (see {@link DnnDetector}) instead of bundled cascade.
+	 * Should be called before detection starts, engines of previous kind are closed.
+	 * Tiles are inferred in batches of up to <code>boxer.dnn.batch</code> property, 8 by default
+	 * @param config prototxt of net
+	 * @param model caffemodel with weights
+	 * @param inputSize side of square net input, 300 for ResNet-SSD
+	 */
+	public static void useDnn(Path config, Path model, int inputSize) {
+		int batch = Integer.getInteger("boxer.dnn.batch", 8);
+		swap(new Engines("dnn-" + inputSize + '-' + model.getFileName(), false, batch, engines.pool.getMaxSize(),
+			() -> new DnnDetector(config, model, inputSize, batch)));
+	}
+
+	/**
+	 * Engines of old pool are closed once detections still using them finish
+	 */
+	private static synchronized void swap(Engines next) {
+		Engines old = engines;
+		engines = next;
+		old.pool.close();
+	}
+
+	/**
+	 * @return name of engine kind in use, results of different engines are cached separately
+	 */
+	public static String getEngine() {
+		return engines.name;
+	}
+
+	/**
+	 * @return true if engine in use works on grey images, so callers that have grey copy anyway may pass it instead
+	 */
+	public static boolean isGreyEngine() {
+		return engines.grey;
+	}
+
+	/**
+	 * Sets max amount of detectors used concurrently, defaults to <code>boxer.detectors</code> property or amount of cores
+	 */
+	public static void setPoolSize(int size) {
+		engines.pool.setMaxSize(size);
+		BoxerExecutors.setDetectionThreads(size);
+	}
+
+	public static int getPoolSize() {
+		return engines.pool.getMaxSize();
+	}
+
+	/**
+	 * Loads all detectors ahead of time, for long-running processes
+	 */
+	public static void warmUp() {
+		DetectorPool<DetectionEngine> pool = engines.pool;
+		pool.prestart(pool.getMaxSize());
+	}
+
+	/**
+	 * Loads natives and one detector in background, so their startup overlaps with whatever caller does meanwhile, eg. decoding input
+	 */
+	public static CompletableFuture<Void> preload() {
+		return CompletableFuture.runAsync(() -> engines.pool.prestart(1), BoxerExecutors.io());
+	}
+
+	public static DetectorPool.Stats getPoolStats() {
+		return engines.pool.getStats();
+	}
+
+	/**
+	 * @param img BGR, BGRA or grey image
+	 * @return detected rects packed as in {@link RectUtils}, filtered but not expanded
+	 */
+	public static int[] detectPacked(Mat img, DetectionParams params) throws InterruptedException {
+		return detectPacked(img, params, true);
+	}
+
+	/**
+	 * @param useCache false for callers that cache results under their own key, so image doesn't take two cache entries
+	 * @return detected rects packed as in {@link RectUtils}, filtered but not expanded
+	 */
+	public static int[] detectPacked(Mat img, DetectionParams params, boolean useCache) throws InterruptedException {
+		long start = System.nanoTime();
+		int[] ret = useCache ? detectCached(img, params) : detectUncached(img, params);
+		Metrics.Stage.DETECT.record(start);
+		Metrics.FACES.observe(ret.length / 4);
+		return ret;
+	}
+
+	/**
+	 * @param img BGR, BGRA or grey image
+	 * @return detected rects, filtered but not expanded
+	 */
+	public static RectVector detectRects(Mat img, DetectionParams params) throws InterruptedException {
+		int[] rects = detectPacked(img, params);
+		return RectUtils.unpack(rects, rects.length / 4);
+	}
+
+	/**
+	 * Detects faces on BGR, BGRA or grey image without converting it to BufferedImage
+	 * @return expanded and squared face rects
+	 */
+	public static RectVector detect(Mat img, float expandFactor, DetectionParams params) throws InterruptedException {
+		int[] rects = RectUtils.expandAndSquare(detectPacked(img, params), expandFactor);
+		return RectUtils.unpack(rects, rects.length / 4);
+	}
+
+	public static FaceList detect(BufferedImage frame, float expandFactor, Classification faceClass) throws InterruptedException {
+		return detect(frame, expandFactor, faceClass, new DetectionParams());
+	}
+
+	/**
+	 * @return expanded and squared faces, all of faceClass
+	 */
+	public static FaceList detect(BufferedImage frame, float expandFactor, Classification faceClass, DetectionParams params) throws InterruptedException {
+		Mat m = MatUtils.wrap(frame);
 		try {
-			Path classifierFile = Paths.get("tmp_haar_cascade.xml");
-			if (Files.exists(classifierFile)) Files.delete(classifierFile);
-			Files.copy(FacialDetector.class.getResourceAsStream("/cascade.xml"), classifierFile);
-			classifier = new CascadeClassifier(classifierFile.toAbsolutePath().toString());
-			Files.delete(classifierFile);
-		} catch (IOException e) {
-			throw new UncheckedIOException(e);
+			return new FaceList(RectUtils.expandAndSquare(detectPacked(m, params), expandFactor), faceClass);
+		} finally {
+			m.release();
 		}
 	}
 
-	public static List<Face> detect(BufferedImage frame, float expandFactor, Classification faceClass) {
-		Mat m = matConv.convert(imgConv.getFrame(frame));
-		cvtColor(m, m, CV_BGR2GRAY);
+	public static CompletableFuture<RectVector> detectAsync(Mat img, float expandFactor, DetectionParams params) {
+		return detectAsync(img, expandFactor, params, BoxerExecutors.detection());
+	}
+
+	/**
+	 * @param executor executor to run detection on, eg. one with virtual threads.
+	 *                 Detection waits for free detector, so executor with more threads than detectors will have some of them parked
+	 */
+	public static CompletableFuture<RectVector> detectAsync(Mat img, float expandFactor, DetectionParams params, Executor executor) {
+		return CompletableFuture.supplyAsync(Unchecked.supplier(() -> detect(img, expandFactor, params)), executor);
+	}
 
-		RectVector o = new RectVector();
-		classifier.detectMultiScale(m, o);
+	public static CompletableFuture<FaceList> detectAsync(BufferedImage frame, float expandFactor, Classification faceClass, DetectionParams params) {
+		return detectAsync(frame, expandFactor, faceClass, params, BoxerExecutors.detection());
+	}
 
-		return IntStream.range(0, (int) o.size())
-			.parallel()
-			.mapToObj(o::get)
-			.map(r -> expandAndSquareRect(r, expandFactor))
-			.map(Unchecked.function(r -> new Face(r, faceClass)))
-			.collect(Collectors.toList());
+	public static CompletableFuture<FaceList> detectAsync(BufferedImage frame, float expandFactor, Classification faceClass, DetectionParams params, Executor executor) {
+		return CompletableFuture.supplyAsync(Unchecked.supplier(() -> detect(frame, expandFactor, faceClass, params)), executor);
+	}
+
+	/**
+	 * Enables result cache, null disables it
+	 */
+	public static void setCache(DetectionCache cache) {
+		FacialDetector.cache = cache;
+	}
+
+	/**
+	 * @return result cache, or null if it isn't enabled
+	 */
+	public static DetectionCache getCache() {
+		return cache;
+	}
+
+	private static int[] detectCached(Mat img, DetectionParams params) throws InterruptedException {
+		DetectionCache c = cache;
+		if (c == null) return detectUncached(img, params);
+		String key = DetectionCache.key("px", Hasher.hash(img), params);
+		int[] cached = c.get(key);
+		if (cached != null) return cached.clone();
+		int[] ret = detectUncached(img, params);
+		c.put(key, ret.clone());
+		return ret;
+	}
+
+	private static int[] detectUncached(Mat img, DetectionParams params) throws InterruptedException {
+		Engines e = engines;
+		int[] rects;
+		if (TiledDetection.shouldTile(img, params)) {
+			Mat src = !e.grey || img.channels() == 1 ? img : MatUtils.toGrey(img, new Mat());
+			try {
+				rects = TiledDetection.detect(src, params, e.pool, e.batch);
+			} finally {
+				//Grey copy of image too big to detect at once shouldn't wait for GC
+				if (src != img) src.release();
+			}
+		} else {
+			rects = RectUtils.pack(e.pool.with(d -> d.detectImage(img, params)));
+		}
+		return DetectionFilter.apply(rects, params);
 	}
 
-	private static Rect expandAndSquareRect(Rect r, float expandFactor) {
+	public static Rect expandAndSquareRect(Rect r, float expandFactor) {
 		int shift = (int) (r.width() * expandFactor);
 		int halfShift = shift / 2;
 		r.x(r.x() - halfShift);
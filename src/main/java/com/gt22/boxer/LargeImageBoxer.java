@@ -0,0 +1,662 @@
+package com.gt22.boxer;
+
+import com.gt22.boxer.utils.BoxerExecutors;
+import com.gt22.boxer.utils.ImageEncoder;
+import com.gt22.boxer.utils.MatUtils;
+import com.gt22.randomutils.log.SimpleLog;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.imageio.*;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.bytedeco.javacpp.opencv_core.Mat;
+import static org.bytedeco.javacpp.opencv_core.Rect;
+import static org.bytedeco.javacpp.opencv_core.RectVector;
+
+/**
+ * Boxes images too big to be decoded at once.
+ * Faces are detected on subsampled decode, then boxes are composited onto full resolution image stripe by stripe,
+ * so peak memory is bounded by budget instead of image size.
+ * Writers that can write empty tiled image and replace its pixels (eg. tiff on Java 9+) get stripes through that, one tile per stripe.
+ * Png and bmp writers read image through {@link RenderedImage#getData(Rectangle)} row by row, JDK jpeg writer asks for whole raster,
+ * but reads it row by row with createChild, so only that writer gets raster that decodes stripes as rows are requested
+ * (jpeg takes quality of encoder, other options don't apply). Other output formats need whole image, so it is composited in native memory as usual.
+ * Baseline jpeg input written top to bottom is decoded in one pass, two stripes at a time, which relies on JDK jpeg reader
+ * writing decoded rows one by one into destination raster, so it is only used with that reader.
+ * Other inputs are decoded once per stripe up to end of that stripe, so smaller budget trades time for memory.
+ * If reader or writer touches pixels outside of rows it was handed, composite starts over without one pass decode, or in memory
+ */
+public class LargeImageBoxer {
+	private static final SimpleLog log = SimpleLog.getLog("Boxer#large");
+	//Formats whose writers take image as RenderedImage row by row
+	private static final Set<String> ROW_FORMATS = new HashSet<>(Arrays.asList("png", "bmp", "jpg", "jpeg", "jpe"));
+	private static final String ROW_READER = "com.sun.imageio.plugins.jpeg.JPEGImageReader";
+	private static final String ROW_WRITER = "com.sun.imageio.plugins.jpeg.JPEGImageWriter";
+	//Tiff tile sides are multiples of 16
+	private static final int TILE_ALIGN = 16;
+	private static final Set<String> JPEG_FORMATS = new HashSet<>(Arrays.asList("jpg", "jpeg", "jpe"));
+	private static final String JPEG_METADATA = "javax_imageio_jpeg_image_1.0";
+	//Stripe is held as decoded and as converted copy (or two decoded stripes), 4 bytes per pixel at worst
+	private static final int STRIPE_BYTES_PER_PIXEL = 8;
+	//Decoded image is converted to grey and scaled by detector, so detection needs about twice as much as decoded image
+	private static final int DETECTION_OVERHEAD = 2;
+
+	private final Classification clazz;
+	private final float expandBy;
+	private final DetectionParams params;
+	private final long budget;
+	private final ImageEncoder encoder;
+
+	/**
+	 * @param budget max amount of bytes of pixel data held at once
+	 */
+	public LargeImageBoxer(Classification clazz, float expandBy, DetectionParams params, long budget, ImageEncoder encoder) {
+		if (budget <= 0) throw new IllegalArgumentException("Memory budget should be positive, got " + budget);
+		this.clazz = clazz;
+		this.expandBy = expandBy;
+		this.params = params;
+		this.budget = budget;
+		this.encoder = encoder;
+	}
+
+	/**
+	 * @return true if decoding whole image as BGR would exceed budget, false if it fits or format isn't known to ImageIO
+	 */
+	public static boolean exceeds(File f, long budget) throws IOException {
+		Dimension size = MatUtils.readSize(f);
+		return size != null && (long) size.width * size.height * 3 > budget;
+	}
+
+	/**
+	 * Detects faces on subsampled image
+	 * @return squared and expanded faces in coordinates of full image
+	 */
+	public RectVector detect(File in) throws IOException, InterruptedException {
+		Dimension size = MatUtils.readSize(in);
+		if (size == null) throw new IOException("Unsupported image format " + in);
+		int factor = subsampling(size);
+		Mat img = MatUtils.readSubsampled(in, factor);
+		if (img == null) throw new IOException("Unsupported image format " + in);
+		RectVector faces;
+		double sx = size.getWidth() / img.cols(), sy = size.getHeight() / img.rows();
+		try {
+			log.debug("Detecting on " + img.cols() + "x" + img.rows() + " copy of " + size.width + "x" + size.height + " image");
+			faces = FacialDetector.detectRects(img, scaled(params, factor));
+		} finally {
+			img.release();
+		}
+		for (int i = 0; i < faces.size(); i++) {
+			Rect r = faces.get(i);
+			r.x((int) (r.x() * sx));
+			r.y((int) (r.y() * sy));
+			r.width((int) Math.ceil(r.width() * sx));
+			r.height((int) Math.ceil(r.height() * sy));
+			FacialDetector.expandAndSquareRect(r, expandBy);
+		}
+		return faces;
+	}
+
+	public RectVector box(File in, File out) throws IOException, InterruptedException {
+		RectVector faces = detect(in);
+		composite(in, out, faces);
+		return faces;
+	}
+
+	/**
+	 * Draws boxes onto full resolution copy of in and writes it to out, format is taken from out extension
+	 */
+	public void composite(File in, File out, RectVector faces) throws IOException {
+		String format = MatUtils.extension(out.getName());
+		if (format.isEmpty()) format = "png";
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+		ImageWriter writer = writers.hasNext() ? writers.next() : null;
+		try {
+			boolean replace = writer != null && canReplaceStripes(writer);
+			if (writer == null || !replace && !ROW_FORMATS.contains(format)) {
+				log.warn(format + " output can't be written stripe by stripe, whole image is composited in memory, use png, bmp or jpeg to stay within budget");
+				compositeInMemory(in, out, faces);
+				return;
+			}
+			try {
+				compositeStriped(in, out, faces, writer, replace, format, true);
+			} catch (UnsupportedStreamingException e) {
+				writer.reset();
+				if (e.decoding) {
+					log.warn("Image can't be decoded in one pass, decoding stripes separately: " + e.getMessage());
+					compositeStriped(in, out, faces, writer, replace, format, false);
+				} else {
+					log.warn(format + " writer can't take image stripe by stripe, whole image is composited in memory: " + e.getMessage());
+					compositeInMemory(in, out, faces);
+				}
+			}
+		} finally {
+			if (writer != null) writer.dispose();
+		}
+	}
+
+	private void compositeInMemory(File in, File out, RectVector faces) throws IOException {
+		Mat img = MatUtils.read(in);
+		if (img == null) throw new IOException("Unsupported image format " + in);
+		try {
+			new VectorBoxDrawer(clazz).drawAll(img, faces);
+			encoder.write(img, out.toPath());
+		} finally {
+			img.release();
+		}
+	}
+
+	/**
+	 * @param replace writer may be able to replace pixels of empty image stripe by stripe
+	 * @param oneDecode allow decoding whole image in one pass when it is supported
+	 */
+	private void compositeStriped(File in, File out, RectVector faces, ImageWriter writer, boolean replace, String format, boolean oneDecode) throws IOException {
+		try (ImageInputStream stream = ImageIO.createImageInputStream(in)) {
+			ImageReader reader = MatUtils.reader(stream);
+			if (reader == null) throw new IOException("Unsupported image format " + in);
+			Stripes stripes = null;
+			try {
+				int width = reader.getWidth(0), height = reader.getHeight(0);
+				int stripeRows = (int) Math.max(1, Math.min(height, budget / ((long) width * STRIPE_BYTES_PER_PIXEL)));
+				if (replace) stripeRows = Math.max(TILE_ALIGN, stripeRows / TILE_ALIGN * TILE_ALIGN);
+				//Replacing pixels goes top to bottom, bmp writer goes bottom up, so it can't follow single pass decode
+				boolean topDown = replace || !format.equals("bmp");
+				boolean sequential = oneDecode && topDown && reader.getClass().getName().equals(ROW_READER) && isBaselineJpeg(reader);
+				log.debug("Compositing " + width + "x" + height + " image in stripes of " + stripeRows + " rows, " + (sequential ? "decoded in one pass" : "each decoded separately"));
+				stripes = sequential ? new SequentialStripes(reader, width, height, stripeRows) : new RegionStripes(reader, width, height);
+				boolean jpeg = JPEG_FORMATS.contains(format);
+				StripedImage img = new StripedImage(stripes, width, height, stripeRows, faces, jpeg, writer.getClass().getName().equals(ROW_WRITER));
+				write(img, writer, replace, format, out);
+			} finally {
+				if (stripes != null) stripes.close();
+				reader.dispose();
+			}
+		}
+	}
+
+	private void write(StripedImage img, ImageWriter writer, boolean replace, String format, File out) throws IOException {
+		ImageWriteParam param = writer.getDefaultWriteParam();
+		if (JPEG_FORMATS.contains(format)) {
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(encoder.getQuality() / 100f);
+			//Progressive encoder keeps coefficients of whole image
+			if (encoder.isProgressive()) log.warn("Progressive jpeg needs whole image in memory, writing baseline one");
+		}
+		if (replace) {
+			//Writer replaces whole tiles, so tiles are made same as stripes
+			param.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setTiling((img.getWidth() + TILE_ALIGN - 1) / TILE_ALIGN * TILE_ALIGN, img.stripeRows, 0, 0);
+			try (ImageOutputStream stream = open(out)) {
+				writer.setOutput(stream);
+				writer.prepareWriteEmpty(null, new ImageTypeSpecifier(img), img.getWidth(), img.getHeight(), null, null, param);
+				//Writer may only know whether it can replace pixels once image is there
+				boolean replacing = writer.canReplacePixels(0);
+				if (replacing) {
+					writer.prepareReplacePixels(0, new Rectangle(0, 0, img.getWidth(), img.getHeight()));
+					for (int y = 0; y < img.getHeight(); y += img.stripeRows) {
+						Raster stripe = img.getData(new Rectangle(0, y, img.getWidth(), Math.min(img.stripeRows, img.getHeight() - y)));
+						ImageWriteParam offset = writer.getDefaultWriteParam();
+						offset.setDestinationOffset(new Point(0, y));
+						writer.replacePixels(stripe.createTranslatedChild(0, 0), offset);
+					}
+					writer.endReplacePixels();
+				}
+				writer.endWriteEmpty();
+				if (replacing) return;
+			}
+			writer.reset();
+			if (!ROW_FORMATS.contains(format)) throw new UnsupportedStreamingException(false, "writer can't replace pixels");
+		}
+		try (ImageOutputStream stream = open(out)) {
+			writer.setOutput(stream);
+			writer.write(null, new IIOImage(img, null, null), param);
+		}
+	}
+
+	/**
+	 * Pixels are replaced by whole tiles, so writer should let tiles be set to stripes.
+	 * Writers only tell whether they can write empty image with output set, answer doesn't depend on output
+	 */
+	private static boolean canReplaceStripes(ImageWriter writer) throws IOException {
+		if (!writer.getDefaultWriteParam().canWriteTiles()) return false;
+		try (ImageOutputStream probe = new MemoryCacheImageOutputStream(new ByteArrayOutputStream())) {
+			writer.setOutput(probe);
+			return writer.canWriteEmpty();
+		} finally {
+			writer.setOutput(null);
+		}
+	}
+
+	private static ImageOutputStream open(File out) throws IOException {
+		if (out.exists() && !out.delete()) throw new IOException("Unable to overwrite " + out);
+		ImageOutputStream ret = ImageIO.createImageOutputStream(out);
+		if (ret == null) throw new IOException("Unable to write " + out);
+		return ret;
+	}
+
+	/**
+	 * @return true if reader is at non-progressive jpeg, which is decoded top to bottom in one pass
+	 */
+	private static boolean isBaselineJpeg(ImageReader reader) throws IOException {
+		if (!reader.getFormatName().equalsIgnoreCase("jpeg")) return false;
+		IIOMetadata meta = reader.getImageMetadata(0);
+		if (meta == null || !JPEG_METADATA.equals(meta.getNativeMetadataFormatName())) return false;
+		NodeList sof = ((Element) meta.getAsTree(JPEG_METADATA)).getElementsByTagName("sof");
+		//Process 2 is progressive, its every scan goes over whole image
+		return sof.getLength() > 0 && !"2".equals(((Element) sof.item(0)).getAttribute("process"));
+	}
+
+	/**
+	 * @return smallest subsampling factor that fits detection into budget, power of two up to 8 so jpeg decoder can downscale by itself
+	 */
+	private int subsampling(Dimension size) {
+		double bytes = (double) size.width * size.height * 3 * DETECTION_OVERHEAD;
+		int factor = (int) Math.ceil(Math.sqrt(bytes / budget));
+		if (factor <= 1) return 1;
+		return factor <= 8 ? Integer.highestOneBit(factor - 1) << 1 : factor;
+	}
+
+	private static DetectionParams scaled(DetectionParams params, int factor) {
+		if (factor == 1) return params;
+		return new DetectionParams(params)
+			.minSize((params.getMinSize() + factor - 1) / factor)
+			.maxSize((params.getMaxSize() + factor - 1) / factor);
+	}
+
+	/**
+	 * Reader or writer doesn't work with rasters the way striping relies on, thrown before it can read or write wrong pixels
+	 */
+	private static class UnsupportedStreamingException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		/** Thrown by one pass decode, not by writer */
+		final boolean decoding;
+
+		UnsupportedStreamingException(boolean decoding, String message) {
+			super(message);
+			this.decoding = decoding;
+		}
+	}
+
+	/**
+	 * Stands for pixels of whole image in rasters that only hand over rows, any element access means raster is used unexpectedly
+	 */
+	private static class NoPixels extends DataBuffer {
+		private final boolean decoding;
+
+		NoPixels(int dataType, boolean decoding) {
+			super(dataType, 0);
+			this.decoding = decoding;
+		}
+
+		@Override
+		public int getElem(int bank, int i) {
+			throw new UnsupportedStreamingException(decoding, "pixels were read outside of rows handed over");
+		}
+
+		@Override
+		public void setElem(int bank, int i, int val) {
+			throw new UnsupportedStreamingException(decoding, "pixels were written outside of rows handed over");
+		}
+	}
+
+	/**
+	 * Source of decoded stripes
+	 */
+	private interface Stripes extends Closeable {
+		/**
+		 * @return rows y..y+rows of image, valid until next call
+		 */
+		BufferedImage read(int y, int rows) throws IOException;
+
+		@Override
+		default void close() {
+		}
+	}
+
+	/**
+	 * Decodes every stripe by its own read of source region, reader decodes all rows above region again
+	 */
+	private static class RegionStripes implements Stripes {
+		private final ImageReader reader;
+		private final int width, height;
+
+		RegionStripes(ImageReader reader, int width, int height) {
+			this.reader = reader;
+			this.width = width;
+			this.height = height;
+		}
+
+		@Override
+		public BufferedImage read(int y, int rows) throws IOException {
+			ImageReadParam param = reader.getDefaultReadParam();
+			param.setSourceRegion(new Rectangle(0, y, width, Math.min(rows, height - y)));
+			return reader.read(0, param);
+		}
+	}
+
+	/**
+	 * Decodes whole image in one read on io pool, stripes are filled in order and handed over when complete.
+	 * Destination of that read is image of full size without pixel storage: jpeg reader copies every decoded row into destination raster
+	 * with setRect, and {@link RowSink} copies it into stripe being filled instead.
+	 * Only two stripe buffers exist, so decoder waits while both are full and not yet consumed
+	 */
+	private static class SequentialStripes implements Stripes {
+		private final ImageReader reader;
+		private final int width, height, stripeRows;
+		private final BlockingQueue<BufferedImage> free = new ArrayBlockingQueue<>(2);
+		//Decoded stripes, or exception decoder failed with
+		private final BlockingQueue<Object> decoded = new ArrayBlockingQueue<>(3);
+		//Released when decoder leaves reader
+		private final CountDownLatch decoderDone = new CountDownLatch(1);
+		private volatile boolean closed;
+		private Thread decoder;
+		private BufferedImage current;
+		private int nextY;
+
+		SequentialStripes(ImageReader reader, int width, int height, int stripeRows) throws IOException {
+			this.reader = reader;
+			this.width = width;
+			this.height = height;
+			this.stripeRows = stripeRows;
+			ImageTypeSpecifier type = reader.getImageTypes(0).next();
+			free.add(type.createBufferedImage(width, stripeRows));
+			free.add(type.createBufferedImage(width, stripeRows));
+			ImageReadParam param = reader.getDefaultReadParam();
+			SampleModel model = type.getSampleModel(width, height);
+			RowSink sink = new RowSink(model, new NoPixels(model.getDataType(), true));
+			param.setDestination(new BufferedImage(type.getColorModel(), sink, type.getColorModel().isAlphaPremultiplied(), null));
+			BoxerExecutors.io().execute(() -> {
+				try {
+					synchronized (this) {
+						if (closed) return;
+						decoder = Thread.currentThread();
+					}
+					reader.read(0, param);
+					if (sink.nextRow < height) throw new IOException("Image ended at row " + sink.nextRow + " of " + height);
+				} catch (Throwable e) {
+					decoded.offer(e);
+				} finally {
+					synchronized (this) {
+						decoder = null;
+					}
+					decoderDone.countDown();
+				}
+			});
+		}
+
+		@Override
+		public BufferedImage read(int y, int rows) throws IOException {
+			if (y != nextY || rows != Math.min(stripeRows, height - y)) {
+				throw new IllegalStateException("Image decoded in one pass is read stripe by stripe from top, requested " + rows + " rows at " + y + " instead of " + nextY);
+			}
+			if (current != null) free.add(current);
+			Object next;
+			try {
+				next = decoded.take();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("Interrupted while waiting for decoder");
+			}
+			if (next instanceof UnsupportedStreamingException) throw (UnsupportedStreamingException) next;
+			if (next instanceof Throwable) throw new IOException("Unable to decode image", (Throwable) next);
+			current = (BufferedImage) next;
+			nextY += rows;
+			return current;
+		}
+
+		@Override
+		public void close() {
+			try {
+				reader.abort();
+			} catch (IllegalStateException ignored) { //Jpeg reader refuses abort from other thread than decoding one, RowSink stops it instead
+			}
+			synchronized (this) {
+				closed = true;
+				if (decoder != null) decoder.interrupt(); //Wakes decoder waiting for free stripe
+			}
+			//Reader is disposed after this, so decoder must be out of it
+			boolean interrupted = false;
+			while (true) {
+				try {
+					decoderDone.await();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) Thread.currentThread().interrupt();
+		}
+
+		private class RowSink extends WritableRaster {
+			BufferedImage filled;
+			int filledY, nextRow;
+
+			RowSink(SampleModel model, DataBuffer placeholder) {
+				super(model, placeholder, new Point());
+			}
+
+			@Override
+			public void setRect(int dx, int dy, Raster row) {
+				if (dy != nextRow || dx != 0 || row.getHeight() != 1 || row.getWidth() != width) {
+					throw new UnsupportedStreamingException(true, "expected row " + nextRow + ", decoder wrote " + row.getWidth() + "x" + row.getHeight() + " at " + dx + ", " + dy);
+				}
+				if (closed) throw new CancellationException("Decoding stopped");
+				try {
+					if (filled == null) {
+						filled = free.take();
+						filledY = dy;
+					}
+					filled.getRaster().setRect(dx, dy - filledY, row);
+					nextRow++;
+					if (nextRow - filledY == filled.getHeight() || nextRow == height) {
+						decoded.put(nextRow - filledY == filled.getHeight() ? filled : filled.getSubimage(0, 0, width, nextRow - filledY));
+						filled = null;
+					}
+				} catch (InterruptedException e) {
+					throw new CancellationException("Decoding stopped");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Image that decodes and boxes one stripe at a time when writer requests rows
+	 */
+	private class StripedImage implements RenderedImage {
+		private final Stripes stripes;
+		private final int width, height, stripeRows;
+		private final RectVector faces;
+		private final boolean opaque, wholeRaster;
+		private BufferedImage stripe;
+		private int stripeY;
+
+		/**
+		 * @param opaque drop alpha, for formats that can't store it
+		 * @param wholeRaster writer asks for whole raster, but reads it row by row with createChild
+		 */
+		StripedImage(Stripes stripes, int width, int height, int stripeRows, RectVector faces, boolean opaque, boolean wholeRaster) throws IOException {
+			this.stripes = stripes;
+			this.width = width;
+			this.height = height;
+			this.stripeRows = stripeRows;
+			this.faces = faces;
+			this.opaque = opaque;
+			this.wholeRaster = wholeRaster;
+			load(0, stripeRows); //Writer needs color and sample model before any row
+		}
+
+		private void load(int y, int rows) throws IOException {
+			stripe = null; //Let previous stripe be collected while next one is decoded
+			BufferedImage decoded = stripes.read(y, Math.min(rows, height - y));
+			stripeY = y;
+			stripe = decoded.getType() == BufferedImage.TYPE_3BYTE_BGR || decoded.getType() == BufferedImage.TYPE_4BYTE_ABGR && !opaque
+				? decoded : convert(decoded);
+			Graphics2D g = stripe.createGraphics();
+			g.translate(0, -y);
+			int bottom = y + stripe.getHeight();
+			for (int i = 0; i < faces.size(); i++) {
+				Rect r = faces.get(i);
+				if (r.y() < bottom && r.y() + r.width() > y) {
+					BoxRenderer.draw(g, clazz, r.x(), r.y(), r.width());
+				}
+			}
+			g.dispose();
+		}
+
+		private BufferedImage convert(BufferedImage img) {
+			//Indexed and grey stripes would lose box colors
+			BufferedImage ret = new BufferedImage(img.getWidth(), img.getHeight(),
+				img.getColorModel().hasAlpha() && !opaque ? BufferedImage.TYPE_4BYTE_ABGR : BufferedImage.TYPE_3BYTE_BGR);
+			Graphics2D g = ret.createGraphics();
+			g.drawImage(img, 0, 0, null);
+			g.dispose();
+			return ret;
+		}
+
+		/**
+		 * Makes sure rows are in current stripe
+		 */
+		private void ensure(int y, int rows) {
+			if (y < stripeY || y + rows > stripeY + stripe.getHeight()) {
+				//Stripes are aligned, so writers going bottom up (bmp) decode every stripe once too
+				int start = y / stripeRows * stripeRows;
+				if (y + rows > start + stripeRows) start = y;
+				try {
+					load(start, Math.max(stripeRows, y + rows - start));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		}
+
+		@Override
+		public Raster getData(Rectangle rect) {
+			ensure(rect.y, rect.height);
+			//Child shares stripe pixels, writers only read returned raster
+			return stripe.getRaster().createChild(rect.x, rect.y - stripeY, rect.width, rect.height, rect.x, rect.y, null);
+		}
+
+		/**
+		 * Whole image is requested by JDK jpeg writer, which then reads it row by row with createChild,
+		 * so returned raster only supports that and loads stripes as rows are requested
+		 */
+		@Override
+		public Raster getData() {
+			if (!wholeRaster) throw new UnsupportedStreamingException(false, "writer asked for whole image");
+			SampleModel model = stripe.getSampleModel().createCompatibleSampleModel(width, height);
+			return new Raster(model, new NoPixels(model.getDataType(), false), new Point()) {
+				@Override
+				public Raster createChild(int parentX, int parentY, int width, int height, int childMinX, int childMinY, int[] bandList) {
+					ensure(parentY, height);
+					return stripe.getRaster().createChild(parentX, parentY - stripeY, width, height, childMinX, childMinY, bandList);
+				}
+			};
+		}
+		@Override
+		public Raster getTile(int tileX, int tileY) {
+			return getData(new Rectangle(0, tileY * stripeRows, width, Math.min(stripeRows, height - tileY * stripeRows)));
+		}
+
+		@Override
+		public WritableRaster copyData(WritableRaster raster) {
+			Rectangle bounds = raster == null ? new Rectangle(0, 0, width, height) : raster.getBounds();
+			Raster data = getData(bounds);
+			if (raster == null) raster = data.createCompatibleWritableRaster(bounds.x, bounds.y, bounds.width, bounds.height);
+			raster.setRect(data);
+			return raster;
+		}
+
+		@Override
+		public ColorModel getColorModel() {
+			return stripe.getColorModel();
+		}
+
+		@Override
+		public SampleModel getSampleModel() {
+			return stripe.getSampleModel().createCompatibleSampleModel(width, stripeRows);
+		}
+
+		@Override
+		public int getWidth() {
+			return width;
+		}
+
+		@Override
+		public int getHeight() {
+			return height;
+		}
+
+		@Override
+		public int getMinX() {
+			return 0;
+		}
+
+		@Override
+		public int getMinY() {
+			return 0;
+		}
+
+		@Override
+		public int getNumXTiles() {
+			return 1;
+		}
+
+		@Override
+		public int getNumYTiles() {
+			return (height + stripeRows - 1) / stripeRows;
+		}
+
+		@Override
+		public int getMinTileX() {
+			return 0;
+		}
+
+		@Override
+		public int getMinTileY() {
+			return 0;
+		}
+
+		@Override
+		public int getTileWidth() {
+			return width;
+		}
+
+		@Override
+		public int getTileHeight() {
+			return stripeRows;
+		}
+
+		@Override
+		public int getTileGridXOffset() {
+			return 0;
+		}
+
+		@Override
+		public int getTileGridYOffset() {
+			return 0;
+		}
+
+		@Override
+		public Vector<RenderedImage> getSources() {
+			return null;
+		}
+
+		@Override
+		public Object getProperty(String name) {
+			return Image.UndefinedProperty;
+		}
+
+		@Override
+		public String[] getPropertyNames() {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package com.gt22.boxer;
+
+import com.gt22.boxer.utils.LruCache;
+import com.gt22.boxer.utils.MatUtils;
+import com.gt22.boxer.utils.Metrics;
+
+import java.awt.image.BufferedImage;
+
+import static org.bytedeco.javacpp.opencv_core.*;
+import static org.bytedeco.javacpp.opencv_imgproc.*;
+
+/**
+ * Alpha-blends box image onto BGR Mat natively.
+ * Box is stored per target width as premultiplied color and inverted alpha, so each draw is one multiply and one add over face region
+ */
+public class MatBoxDrawer implements BoxDrawer {
+	private final Mat box;
+	//Evicted variants aren't released explicitly, other thread may still draw them
+	private final LruCache<Integer, Mat[]> scaled = new LruCache<>(256);
+
+	public MatBoxDrawer(BufferedImage box) {
+		this.box = MatUtils.wrapBgra(box);
+	}
+
+	@Override
+	public void draw(Mat img, int x, int y, int size) {
+		if (size <= 0) return;
+		//Clip box to image, parts of expanded rect may be outside
+		int x0 = Math.max(0, x), y0 = Math.max(0, y);
+		int x1 = Math.min(img.cols(), x + size), y1 = Math.min(img.rows(), y + size);
+		if (x0 >= x1 || y0 >= y1) return;
+
+		Mat[] variant = scaled.get(size, this::scale);
+		Rect boxPart = new Rect(x0 - x, y0 - y, x1 - x0, y1 - y0);
+		Mat roi = img.apply(new Rect(x0, y0, x1 - x0, y1 - y0));
+		multiply(roi, variant[1].apply(boxPart), roi, 1 / 255.0, -1);
+		add(roi, variant[0].apply(boxPart), roi);
+	}
+
+	public LruCache.Stats getCacheStats() {
+		return scaled.getStats();
+	}
+
+	/**
+	 * @return premultiplied BGR box and BGR inverted alpha
+	 */
+	private Mat[] scale(int size) {
+		long start = System.nanoTime();
+		Mat resized = new Mat();
+		resize(box, resized, new Size(size, size), 0, 0, INTER_AREA);
+		MatVector channels = new MatVector();
+		split(resized, channels);
+		Mat alpha = new Mat();
+		cvtColor(channels.get(3), alpha, COLOR_GRAY2BGR);
+		Mat bgr = new Mat();
+		cvtColor(resized, bgr, COLOR_BGRA2BGR);
+		multiply(bgr, alpha, bgr, 1 / 255.0, -1);
+		Mat inverse = new Mat(size, size, CV_8UC3, new Scalar(255, 255, 255, 0));
+		subtract(inverse, alpha, inverse);
+		resized.release();
+		alpha.release();
+		Metrics.Stage.BOX_LOAD.record(start);
+		return new Mat[]{bgr, inverse};
+	}
+}
@@ -0,0 +1,123 @@
+package com.gt22.boxer;
+
+import com.gt22.boxer.utils.RectUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static org.bytedeco.javacpp.opencv_core.*;
+
+/**
+ * Splits big image into overlapping tiles and runs detection on them in parallel, batching engines get several tiles per call.
+ * With max face size set, tiles overlap by it (tiles grow to twice of it if needed), so every face lies fully inside some tile.
+ * Without it tiles overlap by quarter of their size, faces bigger than that are only found if they happen to lie inside one tile.
+ * Duplicates from neighbouring tiles are suppressed
+ */
+class TiledDetection {
+	private static final double IOU_THRESHOLD = 0.3;
+	private static final double CONTAINMENT_THRESHOLD = 0.7;
+
+	private static final ForkJoinPool forkJoin = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+	static boolean shouldTile(Mat img, DetectionParams params) {
+		return params.getTileSize() > 0 && (img.cols() > params.getTileSize() || img.rows() > params.getTileSize());
+	}
+
+	/**
+	 * @param batch max amount of tiles passed to engine at once
+	 * @return found rects, packed
+	 */
+	static int[] detect(Mat img, DetectionParams params, DetectorPool<DetectionEngine> pool, int batch) throws InterruptedException {
+		int tile = params.getMaxSize() > 0 ? Math.max(params.getTileSize(), params.getMaxSize() * 2) : params.getTileSize();
+		int overlap = params.getMaxSize() > 0 ? params.getMaxSize() : tile / 4;
+		int step = tile - overlap;
+		List<Rect> tiles = new ArrayList<>();
+		for (int y = 0; y < img.rows(); y += step) {
+			for (int x = 0; x < img.cols(); x += step) {
+				tiles.add(new Rect(x, y, Math.min(tile, img.cols() - x), Math.min(tile, img.rows() - y)));
+				if (x + tile >= img.cols()) break;
+			}
+			if (y + tile >= img.rows()) break;
+		}
+		//Batches are spread over all engines rather than filling few of them
+		int perTask = Math.max(1, Math.min(batch, (tiles.size() + pool.getMaxSize() - 1) / pool.getMaxSize()));
+
+		DetectionParams tileParams = new DetectionParams(params).tileSize(0);
+		int[] found;
+		try {
+			found = forkJoin.invoke(new TileTask(img, tiles, 0, tiles.size(), perTask, tileParams, pool));
+		} catch (CancellationException e) {
+			throw new InterruptedException("Tiled detection cancelled");
+		} finally {
+			for (Rect r : tiles) {
+				r.deallocate();
+			}
+		}
+		return RectUtils.suppress(found, IOU_THRESHOLD, CONTAINMENT_THRESHOLD);
+	}
+
+	private static class TileTask extends RecursiveTask<int[]> {
+		private static final long serialVersionUID = 1L;
+		private final Mat img;
+		private final List<Rect> tiles;
+		private final int from, to, batch;
+		private final DetectionParams params;
+		private final DetectorPool<DetectionEngine> pool;
+
+		TileTask(Mat img, List<Rect> tiles, int from, int to, int batch, DetectionParams params, DetectorPool<DetectionEngine> pool) {
+			this.img = img;
+			this.tiles = tiles;
+			this.from = from;
+			this.to = to;
+			this.batch = batch;
+			this.params = params;
+			this.pool = pool;
+		}
+
+		@Override
+		protected int[] compute() {
+			if (to - from > batch) {
+				int mid = (from + to) >>> 1;
+				TileTask left = new TileTask(img, tiles, from, mid, batch, params, pool);
+				left.fork();
+				int[] right = new TileTask(img, tiles, mid, to, batch, params, pool).compute();
+				int[] l = left.join();
+				int[] ret = Arrays.copyOf(l, l.length + right.length);
+				System.arraycopy(right, 0, ret, l.length, right.length);
+				return ret;
+			}
+			Mat[] views = new Mat[to - from];
+			for (int t = from; t < to; t++) {
+				views[t - from] = img.apply(tiles.get(t));
+			}
+			RectVector[] found;
+			try {
+				found = pool.with(d -> d.detectImages(views, params));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new CancellationException();
+			} finally {
+				for (Mat v : views) {
+					v.deallocate();
+				}
+			}
+			int[] ret = new int[0];
+			for (int t = from; t < to; t++) {
+				Rect tile = tiles.get(t);
+				int[] rects = RectUtils.pack(found[t - from]);
+				for (int i = 0; i < rects.length; i += 4) { //Tile to image coordinates
+					rects[i] += tile.x();
+					rects[i + 1] += tile.y();
+				}
+				int o = ret.length;
+				ret = Arrays.copyOf(ret, o + rects.length);
+				System.arraycopy(rects, 0, ret, o, rects.length);
+			}
+			return ret;
+		}
+	}
+}
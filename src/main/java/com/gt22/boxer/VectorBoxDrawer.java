@@ -0,0 +1,78 @@
+package com.gt22.boxer;
+
+import com.gt22.boxer.utils.Metrics;
+import org.bytedeco.javacpp.BytePointer;
+
+import java.awt.*;
+import java.nio.ByteBuffer;
+
+import static org.bytedeco.javacpp.opencv_core.*;
+
+/**
+ * Draws boxes procedurally with {@link BoxRenderer} by writing pixels straight into Mat buffer
+ */
+public class VectorBoxDrawer implements BoxDrawer {
+	private final Classification clazz;
+
+	public VectorBoxDrawer(Classification clazz) {
+		this.clazz = clazz;
+	}
+
+	@Override
+	public void draw(Mat img, int x, int y, int size) {
+		new MatTarget(img).draw(x, y, size);
+	}
+
+	@Override
+	public void drawAll(Mat img, RectVector faces) {
+		long start = System.nanoTime();
+		//One target per image, so drawing separate faces doesn't allocate
+		MatTarget target = new MatTarget(img);
+		for (int i = 0; i < faces.size(); i++) {
+			Rect r = faces.get(i);
+			target.draw(r.x(), r.y(), r.width());
+		}
+		Metrics.Stage.DRAW.record(start);
+	}
+
+	private class MatTarget implements BoxRenderer.Target {
+		//Byte buffers are int indexed, so mats over 2GB are addressed through several buffers of whole rows
+		private final ByteBuffer[] stripes;
+		private final int cols, rows, step, stripeRows;
+
+		MatTarget(Mat img) {
+			if (img.channels() != 3) throw new IllegalArgumentException("Expected BGR image, got " + img.channels() + " channels");
+			this.cols = img.cols();
+			this.rows = img.rows();
+			//Rows may be padded (eg. frames from grabber), so step is used instead of width
+			if (img.step() > Integer.MAX_VALUE) throw new IllegalArgumentException("Image row is too big: " + img.step() + " bytes");
+			this.step = (int) img.step();
+			this.stripeRows = Integer.MAX_VALUE / Math.max(1, step);
+			this.stripes = new ByteBuffer[(rows + stripeRows - 1) / stripeRows];
+			BytePointer data = img.data();
+			for (int i = 0; i < stripes.length; i++) {
+				long from = i * (long) stripeRows * step;
+				stripes[i] = data.position(from).limit(from + Math.min(stripeRows, rows - i * stripeRows) * (long) step).asByteBuffer();
+			}
+		}
+
+		void draw(int x, int y, int size) {
+			BoxRenderer.draw(clazz, x, y, size, this);
+		}
+
+		@Override
+		public void fill(int x, int y, int width, int height, Color color) {
+			//Clip to image, parts of expanded rect may be outside
+			int x0 = Math.max(0, x), y0 = Math.max(0, y);
+			int x1 = Math.min(cols, x + width), y1 = Math.min(rows, y + height);
+			byte b = (byte) color.getBlue(), g = (byte) color.getGreen(), r = (byte) color.getRed();
+			for (int row = y0; row < y1; row++) {
+				ByteBuffer buf = stripes[row / stripeRows];
+				int o = row % stripeRows * step + x0 * 3;
+				for (int col = x0; col < x1; col++) {
+					buf.put(o++, b).put(o++, g).put(o++, r);
+				}
+			}
+		}
+	}
+}
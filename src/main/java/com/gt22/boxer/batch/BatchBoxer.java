@@ -0,0 +1,212 @@
+package com.gt22.boxer.batch;
+
+import com.gt22.boxer.BoxDrawer;
+import com.gt22.boxer.DetectionCache;
+import com.gt22.boxer.DetectionParams;
+import com.gt22.boxer.FaceList;
+import com.gt22.boxer.FacialDetector;
+import com.gt22.boxer.MatBoxDrawer;
+import com.gt22.boxer.utils.BoxerExecutors;
+import com.gt22.boxer.utils.Hasher;
+import com.gt22.boxer.utils.ImageEncoder;
+import com.gt22.boxer.utils.MatUtils;
+import com.gt22.boxer.utils.RectUtils;
+import com.gt22.randomutils.log.SimpleLog;
+import org.jooq.lambda.Unchecked;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.bytedeco.javacpp.opencv_core.Mat;
+
+/**
+ * Boxes many images in one process.
+ * Each image goes through decode -&gt; detect -&gt; draw -&gt; encode -&gt; write, decode and encode run on io pool, detect and draw on cpu pool,
+ * write is asynchronous.
+ * In detection-only mode draw and encode are replaced by writing face rects.
+ * Amount of images in flight is bounded, so producer blocks when pipeline is saturated, instead of decoding whole input set into memory
+ */
+public class BatchBoxer implements AutoCloseable {
+	private static final SimpleLog log = SimpleLog.getLog("Boxer#batch");
+
+	private final ThreadPoolExecutor io;
+	private final ThreadPoolExecutor cpu;
+	private final int capacity;
+	private final Semaphore inFlight;
+	private final BoxDrawer drawer;
+	private final ImageEncoder encoder;
+	private final float expandBy;
+	private final DetectionParams params;
+
+	private final AtomicInteger boxed = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+
+	/**
+	 * @param threads amount of threads per stage pool
+	 * @param capacity max amount of images that are decoded but not yet written
+	 * @param drawer may be null if only {@link #detect(List, RectWriter)} is used
+	 * @param encoder may be null if only {@link #detect(List, RectWriter)} is used
+	 */
+	public BatchBoxer(int threads, int capacity, BoxDrawer drawer, ImageEncoder encoder, float expandBy, DetectionParams params) {
+		this.io = BoxerExecutors.fixed("boxer-batch-io-", threads);
+		this.cpu = BoxerExecutors.fixed("boxer-batch-cpu-", threads);
+		BoxerExecutors.register("batch-io", io);
+		BoxerExecutors.register("batch-cpu", cpu);
+		this.capacity = capacity;
+		this.inFlight = new Semaphore(capacity);
+		this.drawer = drawer;
+		this.encoder = encoder;
+		this.expandBy = expandBy;
+		this.params = params;
+	}
+
+	/**
+	 * Boxes all inputs, blocks until every image is written or failed
+	 * @param outputMapper maps input file to output file
+	 * @return amount of failed images
+	 */
+	public int run(List<Path> inputs, Function<Path, Path> outputMapper) throws InterruptedException {
+		return process(inputs, in -> {
+			Path out = outputMapper.apply(in);
+			return CompletableFuture.supplyAsync(() -> decode(in), io)
+				.thenApplyAsync(Unchecked.function(this::box), cpu)
+				.thenComposeAsync(img -> encode(img, out), io);
+		});
+	}
+
+	/**
+	 * Detects faces on all inputs and writes their rects, images aren't drawn or encoded.
+	 * If detection cache is enabled, results are also cached by file content, so repeated files aren't even decoded
+	 * @return amount of failed images
+	 */
+	public int detect(List<Path> inputs, RectWriter out) throws InterruptedException {
+		if (FacialDetector.getCache() != null) {
+			return process(inputs, in -> CompletableFuture.supplyAsync(Unchecked.supplier(() -> Files.readAllBytes(in)), io)
+				.thenAcceptAsync(Unchecked.consumer(data -> detectFile(in, data, out)), cpu));
+		}
+		return process(inputs, in -> CompletableFuture.supplyAsync(() -> decode(in), io)
+			.thenAcceptAsync(Unchecked.consumer(img -> {
+				try {
+					int[] faces = RectUtils.expandAndSquare(FacialDetector.detectPacked(img, params), expandBy);
+					out.write(in.toString(), img.cols(), img.rows(), new FaceList(faces, out.getClassification()));
+				} finally {
+					img.release();
+				}
+			}), cpu));
+	}
+
+	/**
+	 * File cache value is width, height and raw packed rects, misses are detected without pixel cache, so each file takes one entry
+	 */
+	private void detectFile(Path in, byte[] data, RectWriter out) throws IOException, InterruptedException {
+		DetectionCache cache = FacialDetector.getCache();
+		String key = DetectionCache.key("file", Hasher.hash(ByteBuffer.wrap(data)), params);
+		int[] cached = cache.get(key);
+		if (cached == null) {
+			Mat img = MatUtils.decode(data, data.length);
+			if (img == null) throw new IOException("Unsupported image format");
+			try {
+				int[] rects = FacialDetector.detectPacked(img, params, false);
+				cached = new int[rects.length + 2];
+				cached[0] = img.cols();
+				cached[1] = img.rows();
+				System.arraycopy(rects, 0, cached, 2, rects.length);
+			} finally {
+				img.release();
+			}
+			cache.put(key, cached);
+		}
+		int[] faces = RectUtils.expandAndSquare(Arrays.copyOfRange(cached, 2, cached.length), expandBy);
+		out.write(in.toString(), cached[0], cached[1], new FaceList(faces, out.getClassification()));
+	}
+
+	private int process(List<Path> inputs, Function<Path, CompletableFuture<Void>> pipeline) throws InterruptedException {
+		long start = System.nanoTime();
+		for (Path in : inputs) {
+			inFlight.acquire(); //Backpressure: wait until some image leaves pipeline
+			long imageStart = System.nanoTime();
+			CompletableFuture<Void> processed;
+			try {
+				processed = pipeline.apply(in);
+			} catch (RuntimeException e) {
+				//Counted and logged as any other failure, which also releases permit
+				processed = new CompletableFuture<>();
+				processed.completeExceptionally(e);
+			}
+			processed
+				.whenComplete((r, e) -> {
+					if (e == null) {
+						int done = boxed.incrementAndGet();
+						log.debug("Processed " + in + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - imageStart) + "ms (" + done + "/" + inputs.size() + ")");
+					} else {
+						failed.incrementAndGet();
+						log.warn("Unable to process " + in + ": " + (e instanceof CompletionException ? e.getCause() : e));
+					}
+					inFlight.release();
+				});
+		}
+		inFlight.acquire(capacity); //Wait for pipeline to drain
+		inFlight.release(capacity);
+		long took = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		log.info("Batch complete: " + boxed.get() + " processed, " + failed.get() + " failed, " + took + "ms");
+		log.info("Detector pool: " + FacialDetector.getPoolStats());
+		log.debug("Stage pools: " + BoxerExecutors.Stats.of("io", io) + "; " + BoxerExecutors.Stats.of("cpu", cpu));
+		if (FacialDetector.getCache() != null) log.info("Detection cache: " + FacialDetector.getCache().getStats());
+		if (drawer instanceof MatBoxDrawer) log.info("Box cache: " + ((MatBoxDrawer) drawer).getCacheStats());
+		return failed.get();
+	}
+
+	private Mat decode(Path in) {
+		try {
+			Mat img = MatUtils.read(in.toFile());
+			if (img == null) throw new IOException("Unsupported image format");
+			return img;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Releases image if it fails, otherwise it is released by {@link #encode(Mat, Path)}
+	 */
+	private Mat box(Mat img) throws InterruptedException {
+		try {
+			drawer.drawAll(img, FacialDetector.detect(img, expandBy, params));
+			return img;
+		} catch (InterruptedException | RuntimeException | Error e) {
+			img.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Encodes on io thread and releases image right away, file is written without occupying io thread
+	 */
+	private CompletableFuture<Void> encode(Mat img, Path out) {
+		try {
+			Path parent = out.toAbsolutePath().getParent();
+			if (parent != null) Files.createDirectories(parent);
+			return encoder.writeAsync(img, out);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			img.release();
+		}
+	}
+
+	@Override
+	public void close() {
+		BoxerExecutors.unregister("batch-io");
+		BoxerExecutors.unregister("batch-cpu");
+		io.shutdown();
+		cpu.shutdown();
+	}
+}
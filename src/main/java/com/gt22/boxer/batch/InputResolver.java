@@ -0,0 +1,156 @@
+package com.gt22.boxer.batch;
+
+import javax.imageio.ImageIO;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Expands CLI inputs into list of image files.
+ * Supported inputs are plain files, directories, globs (eg. <code>photos/**&#47;*.jpg</code>, which includes <code>photos/a.jpg</code> too)
+ * and file lists (<code>@list.txt</code>, one input per line)
+ */
+public class InputResolver {
+	//Formats of OpenCV imread, ImageIO ones are decoded by fallback (eg. gif)
+	private static final Set<String> IMAGE_SUFFIXES = Stream.concat(
+		Stream.of("bmp", "dib", "jpeg", "jpg", "jpe", "jp2", "png", "webp", "pbm", "pgm", "ppm", "pxm", "pnm", "sr", "ras", "tiff", "tif", "exr", "hdr", "pic"),
+		Arrays.stream(ImageIO.getReaderFileSuffixes()))
+		.map(String::toLowerCase)
+		.collect(Collectors.toSet());
+
+	private final boolean recursive;
+	private final String skipPrefix;
+	//Directory or glob base every scanned file was found in
+	private final Map<Path, Path> roots = new HashMap<>();
+
+	/**
+	 * @param skipPrefix files with names starting with it are skipped while scanning directories and globs
+	 * (eg. outputs of previous run), explicitly listed files are never skipped. May be null
+	 */
+	public InputResolver(boolean recursive, String skipPrefix) {
+		this.recursive = recursive;
+		this.skipPrefix = skipPrefix;
+	}
+
+	public static boolean isBatchInput(String input) {
+		return input.startsWith("@") || isGlob(input) || Files.isDirectory(Paths.get(input));
+	}
+
+	public List<Path> resolve(List<String> inputs) throws IOException {
+		//LinkedHashSet to drop duplicates from overlapping inputs, but keep order
+		Set<Path> ret = new LinkedHashSet<>();
+		for (String input : inputs) {
+			if (input.startsWith("@")) {
+				for (String line : Files.readAllLines(Paths.get(input.substring(1)), StandardCharsets.UTF_8)) {
+					line = line.trim();
+					if (!line.isEmpty() && !line.startsWith("#")) {
+						resolve(line, ret);
+					}
+				}
+			} else {
+				resolve(input, ret);
+			}
+		}
+		return new ArrayList<>(ret);
+	}
+
+	/**
+	 * @return path of resolved file relative to directory or glob base it was found in, or its name if it was listed explicitly
+	 */
+	public Path relative(Path file) {
+		Path root = roots.get(file);
+		return root == null ? file.getFileName() : root.relativize(file);
+	}
+
+	private void resolve(String input, Set<Path> out) throws IOException {
+		if (isGlob(input)) {
+			resolveGlob(input, out);
+			return;
+		}
+		Path p = Paths.get(input);
+		if (Files.isDirectory(p)) {
+			try (Stream<Path> files = Files.walk(p, recursive ? Integer.MAX_VALUE : 1)) {
+				files.filter(Files::isRegularFile)
+					.filter(InputResolver::isImage)
+					.filter(this::isNotSkipped)
+					.sorted()
+					.forEach(f -> add(p, f, out));
+			}
+		} else {
+			out.add(p);
+		}
+	}
+
+	private void resolveGlob(String glob, Set<Path> out) throws IOException {
+		//Walk from the deepest directory that doesn't contain glob characters
+		String normalized = glob.replace('\\', '/');
+		int firstGlobChar = firstGlobChar(normalized);
+		int baseEnd = normalized.lastIndexOf('/', firstGlobChar);
+		Path base = baseEnd < 0 ? Paths.get("") : Paths.get(normalized.substring(0, baseEnd + 1));
+		String pattern = normalized.substring(baseEnd + 1);
+		List<PathMatcher> matchers = new ArrayList<>();
+		for (String variant : zeroDepthVariants(pattern, 0, new LinkedHashSet<>())) {
+			matchers.add(base.getFileSystem().getPathMatcher("glob:" + variant));
+		}
+		int depth = pattern.contains("**") ? Integer.MAX_VALUE : pattern.split("/").length;
+		if (!Files.isDirectory(base.toAbsolutePath())) return;
+		try (Stream<Path> files = Files.walk(base.toAbsolutePath(), depth)) {
+			Path absBase = base.toAbsolutePath();
+			files.filter(Files::isRegularFile)
+				.filter(f -> matchers.stream().anyMatch(m -> m.matches(absBase.relativize(f))))
+				.filter(this::isNotSkipped)
+				.sorted()
+				.forEach(f -> add(base, base.resolve(absBase.relativize(f)), out));
+		}
+	}
+
+	private void add(Path root, Path file, Set<Path> out) {
+		if (out.add(file)) roots.put(file, root);
+	}
+
+	/**
+	 * Glob <code>**&#47;</code> matches at least one directory, so pattern is also matched with every combination of such segments removed
+	 */
+	private static Set<String> zeroDepthVariants(String pattern, int from, Set<String> out) {
+		int i = pattern.indexOf("**/", from);
+		if (i < 0) {
+			out.add(pattern);
+			return out;
+		}
+		zeroDepthVariants(pattern, i + 3, out);
+		if (i == 0 || pattern.charAt(i - 1) == '/') {
+			zeroDepthVariants(pattern.substring(0, i) + pattern.substring(i + 3), i, out);
+		}
+		return out;
+	}
+
+	private boolean isNotSkipped(Path p) {
+		return skipPrefix == null || !p.getFileName().toString().startsWith(skipPrefix);
+	}
+
+	private static boolean isGlob(String input) {
+		return firstGlobChar(input) < input.length();
+	}
+
+	private static int firstGlobChar(String input) {
+		for (int i = 0; i < input.length(); i++) {
+			switch (input.charAt(i)) {
+				case '*':
+				case '?':
+				case '[':
+				case '{':
+					return i;
+			}
+		}
+		return input.length();
+	}
+
+	private static boolean isImage(Path p) {
+		String name = p.getFileName().toString();
+		int dotIndex = name.lastIndexOf('.');
+		return dotIndex >= 0 && IMAGE_SUFFIXES.contains(name.substring(dotIndex + 1).toLowerCase());
+	}
+}
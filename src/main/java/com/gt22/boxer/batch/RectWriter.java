@@ -0,0 +1,114 @@
+package com.gt22.boxer.batch;
+
+import com.google.gson.Gson;
+import com.gt22.boxer.Classification;
+import com.gt22.boxer.FaceList;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+import static org.bytedeco.javacpp.opencv_core.RectVector;
+
+/**
+ * Writes detected face rects instead of boxed images.
+ * JSON Lines has one object per image: <code>{"image", "image_width", "image_height", "class", "faces": [{"x", "y", "width", "height"}]}</code>,
+ * faces classified other than writer classification get their own "class".
+ * CSV has one row per face with same columns as JSON keys, images without faces get one row with empty rect.
+ * Records are written in order of completion, which isn't order of input in batch mode
+ */
+public class RectWriter implements Closeable {
+	private static final Gson gson = new Gson();
+
+	public enum Format {
+		JSONL, CSV
+	}
+
+	private final Writer out;
+	private final Format format;
+	private final Classification clazz;
+	private final String className;
+
+	public RectWriter(Writer out, Format format, Classification clazz) throws IOException {
+		this.out = out;
+		this.format = format;
+		this.clazz = clazz;
+		this.className = clazz.getUnlocName();
+		if (format == Format.CSV) {
+			out.write("image,image_width,image_height,class,x,y,width,height\n");
+		}
+	}
+
+	/**
+	 * @return format by name or file extension, null if unknown
+	 */
+	public static Format parseFormat(String name) {
+		switch (name.toLowerCase()) {
+			case "jsonl":
+			case "ndjson":
+			case "json":
+				return Format.JSONL;
+			case "csv":
+				return Format.CSV;
+			default:
+				return null;
+		}
+	}
+
+	public void write(String image, int width, int height, RectVector faces) throws IOException {
+		write(image, width, height, FaceList.of(faces, clazz));
+	}
+
+	public synchronized void write(String image, int width, int height, FaceList faces) throws IOException {
+		if (format == Format.JSONL) {
+			StringBuilder sb = new StringBuilder(128 + faces.size() * 48);
+			sb.append("{\"image\":").append(gson.toJson(image))
+				.append(",\"image_width\":").append(width)
+				.append(",\"image_height\":").append(height)
+				.append(",\"class\":\"").append(className)
+				.append("\",\"faces\":[");
+			for (int i = 0; i < faces.size(); i++) {
+				if (i > 0) sb.append(',');
+				sb.append("{\"x\":").append(faces.x(i))
+					.append(",\"y\":").append(faces.y(i))
+					.append(",\"width\":").append(faces.width(i))
+					.append(",\"height\":").append(faces.height(i));
+				if (faces.getClassification(i) != clazz) {
+					sb.append(",\"class\":\"").append(faces.getClassification(i).getUnlocName()).append('"');
+				}
+				sb.append('}');
+			}
+			out.write(sb.append("]}\n").toString());
+		} else {
+			String prefix = csvEscape(image) + ',' + width + ',' + height + ',';
+			if (faces.size() == 0) {
+				out.write(prefix + className + ",,,,\n");
+			}
+			StringBuilder sb = new StringBuilder(faces.size() * (prefix.length() + 48));
+			for (int i = 0; i < faces.size(); i++) {
+				Classification c = faces.getClassification(i);
+				sb.append(prefix).append(c == clazz ? className : c.getUnlocName()).append(',')
+					.append(faces.x(i)).append(',').append(faces.y(i)).append(',')
+					.append(faces.width(i)).append(',').append(faces.height(i)).append('\n');
+			}
+			out.write(sb.toString());
+		}
+	}
+
+	/**
+	 * @return classification written for faces and images without faces
+	 */
+	public Classification getClassification() {
+		return clazz;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		out.close();
+	}
+
+	private static String csvEscape(String s) {
+		if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) return s;
+		return '"' + s.replace("\"", "\"\"") + '"';
+	}
+}
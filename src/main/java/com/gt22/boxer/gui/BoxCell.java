@@ -1,14 +1,11 @@
 package com.gt22.boxer.gui;
 
 import com.gt22.boxer.Classification;
-import com.gt22.randomutils.Instances;
 import javafx.application.Platform;
 import javafx.embed.swing.SwingFXUtils;
 import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
-import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
-import org.jooq.lambda.Unchecked;
 
 public class BoxCell extends ListCell<Classification> {
 	private final ImageView g = new ImageView();
@@ -28,13 +25,15 @@ public class BoxCell extends ListCell<Classification> {
 		if(empty || item == null) {
 			setGraphic(null);
 		} else {
-			Instances.getExecutor().submit(Unchecked.runnable(() -> {
-				Image img = SwingFXUtils.toFXImage(item.getImg().get(), null);
-				Platform.runLater(() -> g.setImage(img));
-			}, e -> {
-				e.printStackTrace();
-				System.exit(1);
-			}));
+			item.getImgAsync()
+				.thenApply(img -> SwingFXUtils.toFXImage(img, null))
+				.whenComplete((img, e) -> {
+					if (e != null) {
+						e.printStackTrace();
+						System.exit(1);
+					}
+					Platform.runLater(() -> g.setImage(img));
+				});
 			setGraphic(g);
 		}
 	}
@@ -1,13 +1,21 @@
 package com.gt22.boxer.gui;
 
+import com.gt22.boxer.BoxRenderer;
 import com.gt22.boxer.Classification;
+import com.gt22.boxer.DetectionParams;
+import com.gt22.boxer.FaceList;
 import com.gt22.boxer.FacialDetector;
-import com.gt22.randomutils.Instances;
+import com.gt22.boxer.utils.BoxerExecutors;
+import com.gt22.boxer.utils.ImageEncoder;
+import com.gt22.boxer.utils.MatUtils;
+import com.gt22.boxer.utils.RectIndex;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.embed.swing.SwingFXUtils;
 import javafx.event.ActionEvent;
 import javafx.geometry.Bounds;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Button;
 import javafx.scene.control.ListView;
 import javafx.scene.control.TextField;
@@ -23,20 +31,25 @@ import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.util.List;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 public class Controller {
 	public HBox root;
 	public VBox controls;
 	public ImageView image;
+	public Canvas overlay;
 	public Button open;
 	public Button save;
 	public TextField outName;
 	public ListView<Classification> boxes;
 
-	private List<FacialDetector.Face> recognizedFaces = null;
-	private BufferedImage currentImage, boxedImage;
-	private FacialDetector.Face selectedFace = null;
+	private FaceList recognizedFaces = null;
+	//Built once per detection, face rects don't move afterwards
+	private RectIndex faceIndex = null;
+	private BufferedImage currentImage;
+	private int selectedFace = -1;
 
 	public void initialize() {
 		bindSizes();
@@ -45,14 +58,12 @@ public class Controller {
 
 	private void initListView() {
 		boxes.setCellFactory(BoxCell::new);
-		boxes.getSelectionModel().selectedItemProperty().addListener(((observable, oldValue, newValue) ->
-			Instances.getExecutor().submit(Unchecked.runnable(() -> {
-				if (selectedFace != null) {
-					selectedFace.box = newValue;
-					selectedFace.boxImg = newValue.getImg().get();
-					updateBoxes(currentImage);
-				}
-			}, Unchecked.RETHROW_ALL))));
+		boxes.getSelectionModel().selectedItemProperty().addListener((observable, oldValue, newValue) -> {
+			if (selectedFace >= 0 && newValue != null) {
+				recognizedFaces.setClassification(selectedFace, newValue);
+				redrawFace(selectedFace);
+			}
+		});
 		boxes.setItems(FXCollections.observableArrayList(
 			Classification.IRRELEVANT,
 			Classification.ASSET,
@@ -73,16 +84,12 @@ public class Controller {
 		//Scale x and y to image coords
 		Bounds bounds = image.getLayoutBounds();
 
-		//fx and fy is workaround for lambda
 		double fx = x / (bounds.getWidth() / image.getImage().getWidth());
 		double fy = y / (bounds.getHeight() / image.getImage().getHeight());
 
-		selectedFace = recognizedFaces.parallelStream()
-			.filter(f -> isInRect(f.rect, fx, fy))
-			.findFirst()
-			.orElse(null);
+		selectedFace = faceIndex == null ? -1 : faceIndex.at(fx, fy);
 
-		boxes.setDisable(selectedFace == null);
+		boxes.setDisable(selectedFace < 0);
 	}
 
 	private void bindSizes() {
@@ -95,13 +102,19 @@ public class Controller {
 		save.prefWidthProperty().bind(controls.prefWidthProperty());
 		boxes.prefWidthProperty().bind(controls.prefWidthProperty());
 		boxes.prefHeightProperty().bind(controls.prefHeightProperty().subtract(save.prefHeightProperty()).subtract(outName.prefHeightProperty()).subtract(open.prefHeightProperty()));
+		//Overlay covers displayed image exactly, so boxes are drawn at screen resolution regardless of image size
+		image.layoutBoundsProperty().addListener((observable, oldValue, newValue) -> {
+			overlay.setWidth(newValue.getWidth());
+			overlay.setHeight(newValue.getHeight());
+			redrawOverlay();
+		});
 	}
 
 
 	public void open(ActionEvent actionEvent) {
 		FileChooser chooser = new FileChooser();
 		File f = chooser.showOpenDialog(GuiCore.getStage().getOwner());
-		Instances.getExecutor().submit(Unchecked.runnable(() -> {
+		BoxerExecutors.io().submit(Unchecked.runnable(() -> {
 			BufferedImage i = ImageIO.read(f);
 			Platform.runLater(() -> updateImage(i));
 		}));
@@ -109,72 +122,119 @@ public class Controller {
 	}
 
 	public void save(ActionEvent actionEvent) {
-		Instances.getExecutor().submit(() -> {
+		BoxerExecutors.io().submit(() -> {
 			String out = outName.getText();
 			if (out.isEmpty()) {
 				displayMessage("Specify file name", Color.RED, 3000);
 			} else {
-				File f = new File(out);
+				CompletableFuture<Void> written;
 				try {
-					ImageIO.write(drawBoxes(currentImage, false), extractType(f), f);
-					displayMessage("Saved", Color.GREEN, 1000);
+					opencv_core.Mat img = MatUtils.wrap(drawBoxes(currentImage));
+					try {
+						written = ImageEncoder.DEFAULT.writeAsync(img, Paths.get(out)); //No extension is saved as png
+					} finally {
+						img.release();
+					}
 				} catch (Exception e) {
-					displayMessage("Unable to save: " + e.getLocalizedMessage(), Color.RED, 5000);
+					written = new CompletableFuture<>();
+					written.completeExceptionally(e);
 				}
+				written.whenComplete((r, e) -> {
+					if (e == null) {
+						displayMessage("Saved", Color.GREEN, 1000);
+					} else {
+						displayMessage("Unable to save: " + e.getLocalizedMessage(), Color.RED, 5000);
+					}
+				});
 			}
 		});
 	}
 
-	private String extractType(File f) {
-		String name = f.getName();
-		int dotIndex = name.lastIndexOf('.');
-		if (dotIndex < 0) { //No extension, default to png
-			return "png";
-		} else {
-			return name.substring(dotIndex + 1); //Extract extension
-		}
-	}
-
 	private void displayMessage(String msg, Color color, long time) {
-		Instances.getExecutor().submit(Unchecked.runnable(() -> {
+		Platform.runLater(() -> {
 			String content = outName.getText();
 			outName.setEditable(false);
 			outName.setText(msg);
-			Thread.sleep(time);
-			outName.setText(content);
-			outName.setEditable(true);
-		}));
+			//Timer only schedules restore, no thread sleeps while message is shown
+			BoxerExecutors.scheduler().schedule(() -> Platform.runLater(() -> {
+				outName.setText(content);
+				outName.setEditable(true);
+			}), time, TimeUnit.MILLISECONDS);
+		});
 	}
 
 	private void updateImage(BufferedImage img) {
 		image.setImage(SwingFXUtils.toFXImage(currentImage = img, null));
-		Instances.getExecutor().submit(Unchecked.runnable(() -> {
-			recognizedFaces = FacialDetector.detect(img, 0.7f, Classification.IRRELEVANT);
-			updateBoxes(img);
-		}));
+		recognizedFaces = null;
+		faceIndex = null;
+		selectedFace = -1;
+		boxes.setDisable(true);
+		redrawOverlay();
+		FacialDetector.detectAsync(img, 0.7f, Classification.IRRELEVANT, new DetectionParams()).thenAccept(faces -> Platform.runLater(() -> {
+			if (currentImage != img) return; //Other image was opened while detecting
+			faceIndex = new RectIndex(faces.rects()); //Faces are squared by detection, so rects match boxes
+			recognizedFaces = faces;
+			redrawOverlay();
+		})).exceptionally(e -> {
+			displayMessage("Unable to detect faces: " + e.getCause(), Color.RED, 5000);
+			return null;
+		});
+	}
+
+	private void redrawOverlay() {
+		GraphicsContext g = overlay.getGraphicsContext2D();
+		g.clearRect(0, 0, overlay.getWidth(), overlay.getHeight());
+		if (recognizedFaces == null) return;
+		double scale = overlayScale();
+		for (int i = 0; i < recognizedFaces.size(); i++) {
+			drawFace(g, i, scale);
+		}
+	}
+
+	/**
+	 * Redraws only area of face, faces overlapping it are redrawn within that area too
+	 */
+	private void redrawFace(int face) {
+		GraphicsContext g = overlay.getGraphicsContext2D();
+		double scale = overlayScale();
+		int fx = recognizedFaces.x(face), fy = recognizedFaces.y(face), fsize = recognizedFaces.width(face);
+		//Box covers exactly its scaled rect, margin catches rounding
+		double x = Math.round(fx * scale) - 1, y = Math.round(fy * scale) - 1, size = Math.round(fsize * scale) + 2;
+		g.save();
+		g.beginPath();
+		g.rect(x, y, size, size);
+		g.clip();
+		g.clearRect(x, y, size, size);
+		for (int i : faceIndex.overlapping(fx, fy, fsize, fsize)) { //Boxes are squares of rect width
+			drawFace(g, i, scale);
+		}
+		g.restore();
+	}
+
+	private void drawFace(GraphicsContext g, int face, double scale) {
+		BoxRenderer.draw(recognizedFaces.getClassification(face), (int) Math.round(recognizedFaces.x(face) * scale),
+			(int) Math.round(recognizedFaces.y(face) * scale), (int) Math.round(recognizedFaces.width(face) * scale),
+			(x, y, w, h, color) -> {
+				g.setFill(javafx.scene.paint.Color.rgb(color.getRed(), color.getGreen(), color.getBlue(), color.getAlpha() / 255.0));
+				g.fillRect(x, y, w, h);
+			});
 	}
 
-	private void updateBoxes(BufferedImage base) {
-		boxedImage = drawBoxes(base, true);
-		Platform.runLater(() -> image.setImage(SwingFXUtils.toFXImage(boxedImage, null)));
+	private double overlayScale() {
+		return currentImage == null ? 1 : overlay.getWidth() / currentImage.getWidth();
 	}
 
-	private BufferedImage drawBoxes(BufferedImage src, boolean renderUnrenderable) {
+	/**
+	 * Composites boxes onto full resolution copy, only done on save, unrenderable faces are left without box
+	 */
+	private BufferedImage drawBoxes(BufferedImage src) {
 		BufferedImage img = new BufferedImage(src.getWidth(), src.getHeight(), BufferedImage.TYPE_INT_ARGB);
 		Graphics2D g = img.createGraphics();
 		g.drawImage(src, 0, 0, null);
 		if (recognizedFaces != null) {
-			recognizedFaces.forEach(f -> {
-				if (renderUnrenderable || f.box != Classification.UNRENDERABLE) {
-					g.drawImage(f.boxImg, f.rect.x(), f.rect.y(), f.rect.width(), f.rect.width(), null);
-				}
-			});
+			recognizedFaces.drawAll(g);
 		}
 		g.dispose();
 		return img;
 	}
-
-	private boolean isInRect(opencv_core.Rect r, double x, double y) {
-		return x > r.x() && x < r.x() + r.width() && y > r.y() && y < r.y() + r.height();
-	}
 }
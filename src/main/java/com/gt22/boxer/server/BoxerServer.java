@@ -0,0 +1,392 @@
+package com.gt22.boxer.server;
+
+import com.google.gson.Gson;
+import com.gt22.boxer.BoxDrawer;
+import com.gt22.boxer.Classification;
+import com.gt22.boxer.DetectionParams;
+import com.gt22.boxer.FacialDetector;
+import com.gt22.boxer.utils.BoxerExecutors;
+import com.gt22.boxer.utils.ImageEncoder;
+import com.gt22.boxer.utils.MatUtils;
+import com.gt22.boxer.utils.Metrics;
+import com.gt22.randomutils.log.SimpleLog;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.jooq.lambda.Unchecked;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.bytedeco.javacpp.opencv_core.*;
+
+/**
+ * HTTP boxing service, detectors stay loaded between requests.
+ * <pre>
+ * POST /box?class=asset&amp;expand=0.7&amp;format=jpg&amp;quality=90   body: image, response: boxed image
+ * POST /detect?expand=0.7                         body: image, response: {"width", "height", "faces": [{"x", "y", "width", "height"}]}
+ * POST /detect/batch                              body: images, each prefixed by 4 byte big-endian length, response: json array of /detect results
+ * GET  /health                                    detector and executor stats
+ * GET  /metrics?format=json                        stage latencies, throughput, cache and executor metrics, Prometheus text unless json is requested
+ * </pre>
+ * Detection params can be overridden by min-size, max-size, scale-factor, min-neighbors, overlap and merge query parameters.
+ * Requests over capacity are rejected with 429 before their body is read, uploads over limit with 413.
+ * Uploads bigger than {@link #SPOOL_THRESHOLD} are streamed to temp file instead of heap
+ */
+public class BoxerServer implements AutoCloseable {
+	private static final SimpleLog log = SimpleLog.getLog("Boxer#server");
+	private static final int SPOOL_THRESHOLD = 8 << 20;
+	private static final Gson gson = new Gson();
+
+	private final HttpServer server;
+	private final ExecutorService handlers;
+	private final Semaphore slots;
+	private final long maxUpload;
+	private final Classification defaultClass;
+	private final float defaultExpand;
+	private final DetectionParams defaultParams;
+	private final boolean bitmapBoxes;
+	private final ImageEncoder encoder;
+	private final Map<Classification, BoxDrawer> drawers = new ConcurrentHashMap<>();
+
+	/**
+	 * @param capacity max amount of requests in flight, others get 429
+	 * @param maxUpload max request body size in bytes
+	 */
+	public BoxerServer(int port, int capacity, long maxUpload, Classification defaultClass, float defaultExpand, DetectionParams defaultParams, boolean bitmapBoxes, ImageEncoder encoder) throws IOException {
+		this.slots = new Semaphore(capacity);
+		this.maxUpload = maxUpload;
+		this.defaultClass = defaultClass;
+		this.defaultExpand = defaultExpand;
+		this.defaultParams = defaultParams;
+		this.bitmapBoxes = bitmapBoxes;
+		this.encoder = encoder;
+		this.server = HttpServer.create(new InetSocketAddress(port), 0);
+		//Handler threads only admit requests and wait for stages, so they aren't bounded, amount of admitted requests is
+		this.handlers = Executors.newCachedThreadPool(BoxerExecutors.threadFactory("boxer-http-"));
+		server.setExecutor(handlers);
+		server.createContext("/box", ex -> handle(ex, "POST", true, this::box));
+		server.createContext("/detect", ex -> handle(ex, "POST", true, this::detect));
+		server.createContext("/detect/batch", ex -> handle(ex, "POST", true, this::detectBatch));
+		//Health isn't admitted through slots, so it answers under full load too
+		server.createContext("/health", ex -> handle(ex, "GET", false, this::health));
+		server.createContext("/metrics", ex -> handle(ex, "GET", false, this::metrics));
+	}
+
+	public void start() {
+		long start = System.nanoTime();
+		FacialDetector.warmUp();
+		log.info("Detectors loaded in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+		server.start();
+		log.info("Listening on " + server.getAddress());
+	}
+
+	@Override
+	public void close() {
+		server.stop(1);
+		handlers.shutdown();
+	}
+
+	private interface Handler {
+		void handle(HttpExchange ex, Map<String, String> query) throws Exception;
+	}
+
+	private static class HttpError extends Exception {
+		private static final long serialVersionUID = 1L;
+		final int status;
+
+		HttpError(int status, String message) {
+			super(message);
+			this.status = status;
+		}
+	}
+
+	private void handle(HttpExchange ex, String method, boolean admit, Handler handler) {
+		try {
+			if (!ex.getRequestMethod().equals(method)) throw new HttpError(405, "Use " + method);
+			if (!admit) {
+				handler.handle(ex, parseQuery(ex.getRequestURI().getRawQuery()));
+				return;
+			}
+			if (!slots.tryAcquire()) {
+				ex.getResponseHeaders().set("Retry-After", "1");
+				throw new HttpError(429, "Server is busy");
+			}
+			try {
+				handler.handle(ex, parseQuery(ex.getRequestURI().getRawQuery()));
+			} finally {
+				slots.release();
+			}
+		} catch (HttpError e) {
+			sendError(ex, e.status, e.getMessage());
+		} catch (IllegalArgumentException e) { //Invalid parameters, NumberFormatException included
+			sendError(ex, 400, e.getMessage());
+		} catch (Exception e) {
+			log.warn("Unable to handle " + ex.getRequestURI() + ": " + e);
+			sendError(ex, 500, e.toString());
+		} finally {
+			ex.close();
+		}
+	}
+
+	private void box(HttpExchange ex, Map<String, String> query) throws Exception {
+		Classification clazz = query.containsKey("class") ? Classification.getClassification(query.get("class"), true) : defaultClass;
+		if (clazz == null) throw new HttpError(400, "Unknown classification " + query.get("class"));
+		String format = query.getOrDefault("format", "jpg").toLowerCase();
+		if (!ImageEncoder.isSupported(format)) throw new HttpError(400, "Unknown format " + format);
+		float expand = expand(query);
+		DetectionParams params = params(query);
+		ImageEncoder encoder = query.containsKey("quality") ? this.encoder.withQuality(Integer.parseInt(query.get("quality"))) : this.encoder;
+		Mat img = readImage(ex.getRequestBody(), ex.getRequestHeaders().getFirst("Content-Length"));
+		try {
+			BoxDrawer drawer = drawers.computeIfAbsent(clazz, c -> BoxDrawer.create(c, bitmapBoxes));
+			drawer.boxAsync(img, expand, params).join();
+			try (ImageEncoder.Encoded out = encoder.encode(img, format)) {
+				ex.getResponseHeaders().set("Content-Type", "image/" + (format.equals("jpg") ? "jpeg" : format));
+				ex.sendResponseHeaders(200, out.size());
+				out.writeTo(ex.getResponseBody());
+			}
+		} finally {
+			img.release();
+		}
+	}
+
+	private void detect(HttpExchange ex, Map<String, String> query) throws Exception {
+		float expand = expand(query);
+		DetectionParams params = params(query);
+		Mat img = readImage(ex.getRequestBody(), ex.getRequestHeaders().getFirst("Content-Length"));
+		try {
+			RectVector faces = FacialDetector.detectAsync(img, expand, params).join();
+			sendJson(ex, gson.toJson(new DetectResult(img, faces)));
+		} finally {
+			img.release();
+		}
+	}
+
+	/**
+	 * Images are submitted to detection while rest of body is still uploading,
+	 * results are streamed in request order as they complete.
+	 * Images in flight are charged against request slots: batch holds its own slot and takes free ones up to amount of detectors,
+	 * next image isn't read until one of its images is detected, so batch of small images doesn't pile up decoded ones
+	 */
+	private void detectBatch(HttpExchange ex, Map<String, String> query) throws Exception {
+		float expand = expand(query);
+		DetectionParams params = params(query);
+		int window = 1;
+		while (window < FacialDetector.getPoolSize() && slots.tryAcquire()) {
+			window++;
+		}
+		Semaphore inFlight = new Semaphore(window);
+		AtomicBoolean aborted = new AtomicBoolean();
+		List<CompletableFuture<DetectResult>> results = new ArrayList<>();
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(ex.getRequestBody()));
+			long total = 0;
+			int length;
+			while ((length = readLength(in)) >= 0) {
+				total += length;
+				if (total > maxUpload) throw new HttpError(413, "Batch is bigger than " + maxUpload + " bytes");
+				inFlight.acquire();
+				Mat img;
+				try {
+					byte[] data = new byte[length];
+					in.readFully(data);
+					img = MatUtils.decode(data, length);
+					if (img == null) throw new HttpError(415, "Unsupported image format at index " + results.size());
+				} catch (Exception e) {
+					inFlight.release();
+					throw e;
+				}
+				int width = img.cols(), height = img.rows();
+				results.add(CompletableFuture.supplyAsync(Unchecked.supplier(() -> {
+						//Images queued before batch failed are dropped without detection
+						if (aborted.get()) throw new CancellationException("Batch failed");
+						return FacialDetector.detect(img, expand, params);
+					}), BoxerExecutors.detection())
+					.handle((faces, e) -> {
+						img.release();
+						inFlight.release();
+						return e == null ? new DetectResult(width, height, faces) : new DetectResult(e.getCause() == null ? e : e.getCause());
+					}));
+			}
+			ex.getResponseHeaders().set("Content-Type", "application/json");
+			ex.sendResponseHeaders(200, 0); //Chunked
+			Writer out = new OutputStreamWriter(ex.getResponseBody(), StandardCharsets.UTF_8);
+			out.write('[');
+			for (int i = 0; i < results.size(); i++) {
+				if (i > 0) out.write(',');
+				gson.toJson(results.get(i).join(), out);
+				out.flush();
+			}
+			out.write(']');
+			out.flush();
+		} catch (Exception e) {
+			aborted.set(true);
+			throw e;
+		} finally {
+			//Slots are returned only when their images are released
+			CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).join();
+			slots.release(window - 1);
+		}
+	}
+
+	private void health(HttpExchange ex, Map<String, String> query) throws IOException {
+		Map<String, Object> ret = new LinkedHashMap<>();
+		ret.put("engine", FacialDetector.getEngine());
+		ret.put("detectors", FacialDetector.getPoolStats());
+		ret.put("executors", BoxerExecutors.getStats());
+		ret.put("freeSlots", slots.availablePermits());
+		if (FacialDetector.getCache() != null) ret.put("detectionCache", FacialDetector.getCache().getStats());
+		sendJson(ex, gson.toJson(ret));
+	}
+
+	private void metrics(HttpExchange ex, Map<String, String> query) throws IOException {
+		if ("json".equals(query.get("format"))) {
+			sendJson(ex, Metrics.toJson());
+			return;
+		}
+		StringWriter text = new StringWriter();
+		Metrics.writePrometheus(text);
+		byte[] out = text.toString().getBytes(StandardCharsets.UTF_8);
+		ex.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+		ex.sendResponseHeaders(200, out.length);
+		ex.getResponseBody().write(out);
+	}
+
+	/**
+	 * @return length of next frame, or -1 on end of stream
+	 */
+	private int readLength(DataInputStream in) throws IOException, HttpError {
+		int b = in.read();
+		if (b < 0) return -1;
+		int ret = (b << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+		if (ret < 0 || ret > maxUpload) throw new HttpError(413, "Image is bigger than " + maxUpload + " bytes");
+		return ret;
+	}
+
+	/**
+	 * Small bodies are read to memory, bigger ones are streamed to temp file and read from there
+	 */
+	private Mat readImage(InputStream body, String contentLength) throws IOException, HttpError {
+		long length = contentLength == null ? -1 : Long.parseLong(contentLength);
+		if (length > maxUpload) throw new HttpError(413, "Image is bigger than " + maxUpload + " bytes");
+		byte[] buf = new byte[(int) (length >= 0 && length <= SPOOL_THRESHOLD ? length : SPOOL_THRESHOLD)];
+		int read = 0, r;
+		while (read < buf.length && (r = body.read(buf, read, buf.length - read)) > 0) {
+			read += r;
+		}
+		Mat ret;
+		if (read == buf.length && (r = body.read()) >= 0) { //Body didn't fit, spool rest of it
+			Path tmp = Files.createTempFile("boxer-upload", null);
+			try {
+				try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+					out.write(buf, 0, read);
+					out.write(r);
+					long total = read + 1L;
+					while ((r = body.read(buf)) > 0) {
+						total += r;
+						if (total > maxUpload) throw new HttpError(413, "Image is bigger than " + maxUpload + " bytes");
+						out.write(buf, 0, r);
+					}
+				}
+				ret = MatUtils.read(tmp.toFile());
+			} finally {
+				Files.deleteIfExists(tmp);
+			}
+		} else {
+			if (read == 0) throw new HttpError(400, "Empty body");
+			ret = MatUtils.decode(buf, read);
+		}
+		if (ret == null) throw new HttpError(415, "Unsupported image format");
+		return ret;
+	}
+
+	private float expand(Map<String, String> query) {
+		return query.containsKey("expand") ? Float.parseFloat(query.get("expand")) : defaultExpand;
+	}
+
+	private DetectionParams params(Map<String, String> query) {
+		DetectionParams ret = new DetectionParams(defaultParams);
+		if (query.containsKey("min-size")) ret.minSize(Integer.parseInt(query.get("min-size")));
+		if (query.containsKey("max-size")) ret.maxSize(Integer.parseInt(query.get("max-size")));
+		if (query.containsKey("scale-factor")) ret.scaleFactor(Double.parseDouble(query.get("scale-factor")));
+		if (query.containsKey("min-neighbors")) ret.minNeighbors(Integer.parseInt(query.get("min-neighbors")));
+		if (query.containsKey("overlap")) ret.overlapThreshold(Double.parseDouble(query.get("overlap")));
+		if (query.containsKey("merge")) ret.mergeOverlaps(Boolean.parseBoolean(query.get("merge")));
+		return ret;
+	}
+
+	private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+		Map<String, String> ret = new HashMap<>();
+		if (query == null) return ret;
+		for (String pair : query.split("&")) {
+			int eq = pair.indexOf('=');
+			String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), "UTF-8");
+			ret.put(key, eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+		}
+		return ret;
+	}
+
+	private static void sendJson(HttpExchange ex, String json) throws IOException {
+		byte[] out = json.getBytes(StandardCharsets.UTF_8);
+		ex.getResponseHeaders().set("Content-Type", "application/json");
+		ex.sendResponseHeaders(200, out.length);
+		ex.getResponseBody().write(out);
+	}
+
+	private static void sendError(HttpExchange ex, int status, String message) {
+		try {
+			byte[] out = gson.toJson(Collections.singletonMap("error", message)).getBytes(StandardCharsets.UTF_8);
+			ex.getResponseHeaders().set("Content-Type", "application/json");
+			ex.sendResponseHeaders(status, out.length);
+			ex.getResponseBody().write(out);
+		} catch (IOException e) { //Client is gone, or response was already started
+			log.debug("Unable to send error " + status + ": " + e);
+		}
+	}
+
+	private static class DetectResult {
+		final Integer width, height;
+		final List<FaceRect> faces;
+		final String error;
+
+		DetectResult(Mat img, RectVector rects) {
+			this(img.cols(), img.rows(), rects);
+		}
+
+		DetectResult(int width, int height, RectVector rects) {
+			this.width = width;
+			this.height = height;
+			this.faces = new ArrayList<>((int) rects.size());
+			for (int i = 0; i < rects.size(); i++) {
+				Rect r = rects.get(i);
+				faces.add(new FaceRect(r.x(), r.y(), r.width(), r.height()));
+			}
+			this.error = null;
+		}
+
+		DetectResult(Throwable error) {
+			this.width = null;
+			this.height = null;
+			this.faces = null;
+			this.error = error.toString();
+		}
+	}
+
+	private static class FaceRect {
+		final int x, y, width, height;
+
+		FaceRect(int x, int y, int width, int height) {
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.height = height;
+		}
+	}
+}
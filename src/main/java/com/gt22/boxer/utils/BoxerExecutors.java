@@ -0,0 +1,141 @@
+package com.gt22.boxer.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors separated by kind of work, so slow fetch or timer can't starve detection:
+ * <ul>
+ *     <li>detection - one thread per detector, sized by {@link com.gt22.boxer.FacialDetector#setPoolSize(int)}</li>
+ *     <li>cpu - drawing and other short cpu work, <code>boxer.threads.cpu</code> property, defaults to amount of cores</li>
+ *     <li>io - fetch, decode, encode and file access, <code>boxer.threads.io</code> property, defaults to 4 threads per core</li>
+ *     <li>scheduler - timers, single thread, tasks shouldn't block</li>
+ * </ul>
+ * All threads are daemons, idle pool threads are stopped after 30 seconds
+ */
+public class BoxerExecutors {
+	private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+	private static final ThreadPoolExecutor detection = fixed("boxer-detect-", CORES);
+	private static final ThreadPoolExecutor cpu = fixed("boxer-cpu-", Integer.getInteger("boxer.threads.cpu", CORES));
+	private static final ThreadPoolExecutor io = fixed("boxer-io-", Integer.getInteger("boxer.threads.io", CORES * 4));
+	private static final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, threadFactory("boxer-timer-"));
+	//Pools owned by other components, reported in stats while they live
+	private static final Map<String, ThreadPoolExecutor> registered = new ConcurrentSkipListMap<>();
+
+	static {
+		scheduler.setRemoveOnCancelPolicy(true);
+	}
+
+	public static ExecutorService detection() {
+		return detection;
+	}
+
+	public static ExecutorService cpu() {
+		return cpu;
+	}
+
+	public static ExecutorService io() {
+		return io;
+	}
+
+	public static ScheduledExecutorService scheduler() {
+		return scheduler;
+	}
+
+	public static void setDetectionThreads(int threads) {
+		resize(detection, threads);
+	}
+
+	public static void setCpuThreads(int threads) {
+		resize(cpu, threads);
+	}
+
+	public static void setIoThreads(int threads) {
+		resize(io, threads);
+	}
+
+	public static List<Stats> getStats() {
+		List<Stats> ret = new ArrayList<>(Arrays.asList(
+			Stats.of("detection", detection),
+			Stats.of("cpu", cpu),
+			Stats.of("io", io),
+			Stats.of("scheduler", scheduler)
+		));
+		registered.forEach((name, pool) -> ret.add(Stats.of(name, pool)));
+		return ret;
+	}
+
+	/**
+	 * Includes pool in {@link #getStats()} until it is unregistered
+	 */
+	public static void register(String name, ThreadPoolExecutor pool) {
+		registered.put(name, pool);
+	}
+
+	public static void unregister(String name) {
+		registered.remove(name);
+	}
+
+	/**
+	 * Fixed pool with unbounded queue, threads are stopped when idle
+	 */
+	public static ThreadPoolExecutor fixed(String prefix, int threads) {
+		if (threads <= 0) throw new IllegalArgumentException("Thread count should be positive, got " + threads);
+		ThreadPoolExecutor ret = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory(prefix));
+		ret.allowCoreThreadTimeOut(true);
+		return ret;
+	}
+
+	public static ThreadFactory threadFactory(String prefix) {
+		AtomicInteger counter = new AtomicInteger();
+		return r -> {
+			Thread t = new Thread(r, prefix + counter.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+	}
+
+	private static void resize(ThreadPoolExecutor pool, int threads) {
+		if (threads <= 0) throw new IllegalArgumentException("Thread count should be positive, got " + threads);
+		//Max can't be less than core
+		if (threads > pool.getMaximumPoolSize()) {
+			pool.setMaximumPoolSize(threads);
+			pool.setCorePoolSize(threads);
+		} else {
+			pool.setCorePoolSize(threads);
+			pool.setMaximumPoolSize(threads);
+		}
+	}
+
+	public static class Stats {
+		public final String name;
+		public final int threads;
+		public final int active;
+		public final int queued;
+		public final int largest;
+		public final long completed;
+
+		Stats(String name, int threads, int active, int queued, int largest, long completed) {
+			this.name = name;
+			this.threads = threads;
+			this.active = active;
+			this.queued = queued;
+			this.largest = largest;
+			this.completed = completed;
+		}
+
+		public static Stats of(String name, ThreadPoolExecutor pool) {
+			return new Stats(name, pool.getPoolSize(), pool.getActiveCount(), pool.getQueue().size(), pool.getLargestPoolSize(), pool.getCompletedTaskCount());
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %d active of %d threads, %d queued, %d completed, %d largest", name, active, threads, queued, completed, largest);
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package com.gt22.boxer.utils;
+
+import com.gt22.randomutils.log.SimpleLog;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed on-disk cache.
+ * Content is stored in <code>objects/&lt;sha256 of content&gt;</code>, keys are mapped to content by <code>refs/&lt;sha256 of key&gt;</code> files,
+ * so same content under different keys is stored once. All writes go through temp file and atomic move, so several processes may share directory.
+ * When total size of objects exceeds cap, least recently read objects are removed.
+ * Directory is scanned only when size estimate exceeds cap, writes of other processes are noticed on next scan
+ */
+public class DiskCache {
+	private static final SimpleLog log = SimpleLog.getLog("DiskCache");
+
+	private final Path objects;
+	private final Path refs;
+	private final long maxBytes;
+
+	//Size of objects as of last scan plus own writes since, directory is rescanned only when it exceeds cap. -1 before first scan
+	private final AtomicLong approxBytes = new AtomicLong(-1);
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	public DiskCache(Path dir, long maxBytes) throws IOException {
+		this.objects = Files.createDirectories(dir.resolve("objects"));
+		this.refs = Files.createDirectories(dir.resolve("refs"));
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return memory-mapped content, or null if key isn't cached
+	 */
+	public ByteBuffer get(String key) {
+		try {
+			Path ref = refs.resolve(hash(key.getBytes(StandardCharsets.UTF_8)));
+			if (!Files.exists(ref)) {
+				misses.increment();
+				return null;
+			}
+			Path object = objects.resolve(new String(Files.readAllBytes(ref), StandardCharsets.US_ASCII).trim());
+			ByteBuffer ret;
+			try (FileChannel ch = FileChannel.open(object, StandardOpenOption.READ)) {
+				ret = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+			}
+			touch(object);
+			hits.increment();
+			return ret;
+		} catch (NoSuchFileException e) { //Object evicted by other process
+			misses.increment();
+			return null;
+		} catch (IOException e) {
+			log.warn("Unable to read cache entry " + key + ": " + e);
+			misses.increment();
+			return null;
+		}
+	}
+
+	public void put(String key, byte[] content) {
+		try {
+			String contentHash = hash(content);
+			Path object = objects.resolve(contentHash);
+			if (!Files.exists(object)) {
+				writeAtomically(object, content);
+				approxBytes.accumulateAndGet(content.length, (cur, add) -> cur < 0 ? cur : cur + add);
+			}
+			writeAtomically(refs.resolve(hash(key.getBytes(StandardCharsets.UTF_8))), contentHash.getBytes(StandardCharsets.US_ASCII));
+			long size = approxBytes.get();
+			if (size < 0 || size > maxBytes) evict();
+		} catch (IOException e) {
+			log.warn("Unable to cache " + key + ": " + e);
+		}
+	}
+
+	public String getStats() {
+		return "hits: " + hits.sum() + ", misses: " + misses.sum();
+	}
+
+	private void evict() throws IOException {
+		List<Path> files;
+		try (Stream<Path> s = Files.list(objects)) {
+			files = s.filter(p -> !p.getFileName().toString().endsWith(".tmp")).collect(Collectors.toList());
+		}
+		long total = 0;
+		List<Entry> entries = new ArrayList<>(files.size());
+		for (Path p : files) {
+			try {
+				Entry e = new Entry(p, Files.size(p), Files.getLastModifiedTime(p));
+				total += e.size;
+				entries.add(e);
+			} catch (NoSuchFileException ignored) { //Removed concurrently
+			}
+		}
+		if (total <= maxBytes) {
+			approxBytes.set(total);
+			return;
+		}
+		entries.sort(Comparator.comparing(e -> e.lastUsed));
+		long target = maxBytes - maxBytes / 10; //Some headroom, so following puts don't rescan right away
+		for (Entry e : entries) {
+			if (total <= target) break;
+			Files.deleteIfExists(e.path);
+			total -= e.size;
+			log.debug("Evicted " + e.path);
+		}
+		approxBytes.set(total);
+		//Refs to removed objects are left, they are treated as misses and overwritten on next put
+	}
+
+	private static class Entry {
+		final Path path;
+		final long size;
+		final FileTime lastUsed;
+
+		Entry(Path path, long size, FileTime lastUsed) {
+			this.path = path;
+			this.size = size;
+			this.lastUsed = lastUsed;
+		}
+	}
+
+	private static void touch(Path p) {
+		try {
+			Files.setLastModifiedTime(p, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException ignored) { //Read-only cache (eg. prepopulated) is fine, it just won't track usage
+		}
+	}
+
+	private static void writeAtomically(Path target, byte[] content) throws IOException {
+		Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+		try {
+			Files.write(tmp, content);
+			Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private static String hash(byte[] data) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+			StringBuilder sb = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) { //SHA-256 is required to be supported
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Reads mapped content without copying it to heap array first
+	 */
+	public static InputStream asStream(ByteBuffer buf) {
+		ByteBuffer b = buf.duplicate();
+		return new InputStream() {
+			@Override
+			public int read() {
+				return b.hasRemaining() ? b.get() & 0xFF : -1;
+			}
+
+			@Override
+			public int read(byte[] dst, int off, int len) {
+				if (!b.hasRemaining()) return -1;
+				len = Math.min(len, b.remaining());
+				b.get(dst, off, len);
+				return len;
+			}
+
+			@Override
+			public int available() {
+				return b.remaining();
+			}
+		};
+	}
+}
@@ -0,0 +1,96 @@
+package com.gt22.boxer.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.bytedeco.javacpp.opencv_core.Mat;
+
+/**
+ * Fast non-cryptographic 128 bit hash for cache keys, two murmur-like lanes over 8 byte words.
+ * Not resistant to crafted collisions, keys built from it shouldn't guard anything but caches
+ */
+public class Hasher {
+	private static final long C1 = 0x87c37b91114253d5L;
+	private static final long C2 = 0x4cf5ad432745937fL;
+
+	private long h1 = 0x9e3779b97f4a7c15L, h2 = 0xc2b2ae3d27d4eb4fL;
+	private long length;
+	private long tail;
+	private int tailBytes;
+
+	public static String hash(ByteBuffer data) {
+		return new Hasher().update(data).digest();
+	}
+
+	/**
+	 * Hashes pixels with image size and type, ROIs are hashed row by row
+	 */
+	public static String hash(Mat m) {
+		Hasher h = new Hasher();
+		h.mix(m.rows());
+		h.mix(m.cols());
+		h.mix(m.type());
+		long rowBytes = m.cols() * m.elemSize();
+		if (m.isContinuous()) {
+			h.update(m.data().capacity(rowBytes * m.rows()).asByteBuffer());
+		} else {
+			for (int y = 0; y < m.rows(); y++) {
+				h.update(m.ptr(y).capacity(rowBytes).asByteBuffer());
+			}
+		}
+		return h.digest();
+	}
+
+	public Hasher update(ByteBuffer data) {
+		ByteBuffer b = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		length += b.remaining();
+		while (tailBytes != 0 && b.hasRemaining()) { //Finish word started by previous update
+			addTailByte(b.get());
+		}
+		while (b.remaining() >= 8) {
+			mix(b.getLong());
+		}
+		while (b.hasRemaining()) {
+			addTailByte(b.get());
+		}
+		return this;
+	}
+
+	/**
+	 * @return hash as 32 hex chars, hasher shouldn't be used afterwards
+	 */
+	public String digest() {
+		if (tailBytes != 0) mix(tail);
+		long a = h1 ^ length, b = h2 ^ length;
+		a += b;
+		b += a;
+		a = fmix(a);
+		b = fmix(b);
+		a += b;
+		b += a;
+		return String.format("%016x%016x", a, b);
+	}
+
+	private void addTailByte(byte v) {
+		tail |= (v & 0xFFL) << (tailBytes * 8);
+		if (++tailBytes == 8) {
+			mix(tail);
+			tail = 0;
+			tailBytes = 0;
+		}
+	}
+
+	private void mix(long k) {
+		h1 = Long.rotateLeft(h1 ^ Long.rotateLeft(k * C1, 31) * C2, 27) * 5 + 0x52dce729;
+		h2 = Long.rotateLeft(h2 ^ Long.rotateLeft(k * C2, 33) * C1, 31) * 5 + 0x38495ab5 + h1;
+	}
+
+	private static long fmix(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+}
@@ -0,0 +1,270 @@
+package com.gt22.boxer.utils;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.javacpp.opencv_imgcodecs;
+
+import javax.imageio.ImageIO;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+
+import static org.bytedeco.javacpp.opencv_core.Mat;
+import static org.bytedeco.javacpp.opencv_imgcodecs.*;
+
+/**
+ * Encodes images with OpenCV and writes them through file channels.
+ * Native output buffers are pooled and grow to the biggest encoded image, so steady state encoding doesn't allocate output buffers.
+ * It isn't allocation-free: JavaCPP 1.3 has no ByteVector, so imencode goes through temporary std::vector,
+ * pooled buffer is copied into it and encoded bytes are copied back, {@link Encoded#toArray()} copies them once more to heap.
+ * Formats unsupported by OpenCV are encoded by ImageIO, options don't apply to them
+ */
+public class ImageEncoder {
+	static {
+		Loader.load(opencv_imgcodecs.class); //Params are allocated natively, encoder may be created before any Mat
+	}
+
+	public static final ImageEncoder DEFAULT = new ImageEncoder(95, -1, false);
+
+	private static final Set<String> OPENCV_FORMATS = new HashSet<>(Arrays.asList(
+		"jpg", "jpeg", "jpe", "png", "bmp", "dib", "tif", "tiff", "webp", "pbm", "pgm", "ppm", "pnm", "sr", "ras"
+	));
+	private static final Set<OpenOption> WRITE_OPTIONS = new HashSet<>(Arrays.asList(
+		StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING
+	));
+	private static final long INITIAL_BUFFER = 256 << 10;
+	//Buffers of huge images aren't kept, so one panorama doesn't pin memory forever
+	private static final long MAX_POOLED_BUFFER = 32 << 20;
+	private static final BlockingQueue<BytePointer> pool = new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors() * 2);
+
+	private final int quality;
+	private final int pngCompression;
+	private final boolean progressive;
+	//Read-only after construction, so shared by all threads
+	private final IntPointer jpegParams;
+	private final IntPointer pngParams;
+	private final IntPointer webpParams;
+
+	/**
+	 * @param quality jpeg and webp quality, 0-100
+	 * @param pngCompression zlib level, 0-9, higher is smaller but slower.
+	 * -1 keeps OpenCV default, which is level 1 with filter tuned for speed and is noticeably faster than any explicit level
+	 * @param progressive write progressive jpeg
+	 */
+	public ImageEncoder(int quality, int pngCompression, boolean progressive) {
+		if (quality < 0 || quality > 100) throw new IllegalArgumentException("Quality should be in 0-100, got " + quality);
+		if (pngCompression < -1 || pngCompression > 9) throw new IllegalArgumentException("PNG compression should be in 0-9 or -1, got " + pngCompression);
+		this.quality = quality;
+		this.pngCompression = pngCompression;
+		this.progressive = progressive;
+		this.jpegParams = new IntPointer(IMWRITE_JPEG_QUALITY, quality, IMWRITE_JPEG_PROGRESSIVE, progressive ? 1 : 0);
+		this.pngParams = pngCompression < 0 ? null : new IntPointer(IMWRITE_PNG_COMPRESSION, pngCompression);
+		this.webpParams = new IntPointer(IMWRITE_WEBP_QUALITY, Math.max(quality, 1));
+	}
+
+	public ImageEncoder withQuality(int quality) {
+		return quality == this.quality ? this : new ImageEncoder(quality, pngCompression, progressive);
+	}
+
+	public int getQuality() {
+		return quality;
+	}
+
+	public int getPngCompression() {
+		return pngCompression;
+	}
+
+	public boolean isProgressive() {
+		return progressive;
+	}
+
+	/**
+	 * @param format extension without dot
+	 * @return true if format can be encoded by OpenCV or ImageIO
+	 */
+	public static boolean isSupported(String format) {
+		format = format.toLowerCase();
+		return OPENCV_FORMATS.contains(format) || ImageIO.getImageWritersByFormatName(format).hasNext();
+	}
+
+	/**
+	 * @param format extension without dot
+	 * @return encoded image, should be closed to return its buffer to pool
+	 */
+	public Encoded encode(Mat m, String format) throws IOException {
+		long start = System.nanoTime();
+		format = format.isEmpty() ? "png" : format.toLowerCase();
+		if (!OPENCV_FORMATS.contains(format)) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			if (!ImageIO.write(MatUtils.toBufferedImage(m), format, out)) throw new IOException("No writer for " + format);
+			return encoded(new Encoded(ByteBuffer.wrap(out.toByteArray()), null), m, start);
+		}
+		BytePointer buf = pool.poll();
+		if (buf == null) buf = new BytePointer(INITIAL_BUFFER);
+		//Result is written into buffer only if it fits limit, otherwise buffer is reallocated
+		buf.position(0).limit(buf.capacity());
+		boolean encoded = false;
+		try {
+			IntPointer params = params(format);
+			encoded = params == null ? imencode("." + format, m, buf) : imencode("." + format, m, buf, params);
+			if (!encoded) throw new IOException("Unable to encode " + format);
+			return encoded(new Encoded(buf.asByteBuffer(), buf), m, start);
+		} finally {
+			if (!encoded) recycle(buf);
+		}
+	}
+
+	/**
+	 * Encodes and writes image on calling thread, format is taken from file extension
+	 */
+	public void write(Mat m, Path out) throws IOException {
+		try (Encoded data = encode(m, MatUtils.extension(out.getFileName().toString()));
+		     FileChannel ch = FileChannel.open(out, WRITE_OPTIONS)) {
+			ByteBuffer buf = data.buffer();
+			while (buf.hasRemaining()) {
+				ch.write(buf);
+			}
+		}
+	}
+
+	/**
+	 * Encodes image on calling thread, then writes it on io pool without blocking.
+	 * Format is taken from file extension, image may be released as soon as this returns
+	 */
+	public CompletableFuture<Void> writeAsync(Mat m, Path out) {
+		CompletableFuture<Void> ret = new CompletableFuture<>();
+		Encoded data;
+		AsynchronousFileChannel ch;
+		try {
+			data = encode(m, MatUtils.extension(out.getFileName().toString()));
+		} catch (IOException | RuntimeException e) {
+			ret.completeExceptionally(e);
+			return ret;
+		}
+		try {
+			ch = AsynchronousFileChannel.open(out, WRITE_OPTIONS, BoxerExecutors.io());
+		} catch (IOException | RuntimeException e) {
+			data.close();
+			ret.completeExceptionally(e);
+			return ret;
+		}
+		ByteBuffer buf = data.buffer();
+		ch.write(buf, 0, null, new CompletionHandler<Integer, Void>() {
+			@Override
+			public void completed(Integer written, Void attachment) {
+				if (buf.hasRemaining()) { //Partial write, continue from where it stopped
+					ch.write(buf, buf.position(), null, this);
+				} else {
+					finish(null);
+				}
+			}
+
+			@Override
+			public void failed(Throwable e, Void attachment) {
+				finish(e);
+			}
+
+			private void finish(Throwable e) {
+				try {
+					ch.close();
+				} catch (IOException ce) {
+					if (e == null) e = ce;
+				}
+				data.close();
+				if (e == null) {
+					ret.complete(null);
+				} else {
+					ret.completeExceptionally(e);
+				}
+			}
+		});
+		return ret;
+	}
+
+	private IntPointer params(String format) {
+		switch (format) {
+			case "jpg":
+			case "jpeg":
+			case "jpe":
+				return jpegParams;
+			case "png":
+				return pngParams;
+			case "webp":
+				return webpParams;
+			default:
+				return null;
+		}
+	}
+
+	private static Encoded encoded(Encoded data, Mat m, long start) {
+		Metrics.Stage.ENCODE.record(start);
+		Metrics.ENCODED_BYTES.add(data.size());
+		Metrics.ENCODED_PIXELS.add(m.total());
+		return data;
+	}
+
+	private static void recycle(BytePointer buf) {
+		if (buf.capacity() > MAX_POOLED_BUFFER || !pool.offer(buf)) {
+			buf.deallocate();
+		}
+	}
+
+	public static class Encoded implements AutoCloseable {
+		private final ByteBuffer data;
+		private BytePointer pooled;
+
+		private Encoded(ByteBuffer data, BytePointer pooled) {
+			this.data = data;
+			this.pooled = pooled;
+		}
+
+		/**
+		 * @return encoded bytes, valid until close
+		 */
+		public ByteBuffer buffer() {
+			return data;
+		}
+
+		public int size() {
+			return data.limit();
+		}
+
+		public byte[] toArray() {
+			byte[] ret = new byte[data.limit()];
+			((ByteBuffer) data.duplicate().rewind()).get(ret);
+			return ret;
+		}
+
+		public void writeTo(OutputStream out) throws IOException {
+			ByteBuffer buf = (ByteBuffer) data.duplicate().rewind();
+			if (buf.hasArray()) {
+				out.write(buf.array(), buf.arrayOffset(), buf.limit());
+			} else {
+				Channels.newChannel(out).write(buf);
+			}
+		}
+
+		@Override
+		public synchronized void close() {
+			if (pooled != null) {
+				recycle(pooled);
+				pooled = null;
+			}
+		}
+	}
+}
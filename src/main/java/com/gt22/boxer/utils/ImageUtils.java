@@ -4,17 +4,24 @@ import com.gt22.randomutils.Instances;
 import com.gt22.randomutils.log.SimpleLog;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.util.EntityUtils;
 
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.util.HashMap;
-import java.util.concurrent.Future;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ImageUtils {
-	private static final HashMap<String, Future<BufferedImage>> IMAGE_CACHE = new HashMap<>();
+	private static final ConcurrentHashMap<String, CompletableFuture<BufferedImage>> IMAGE_CACHE = new ConcurrentHashMap<>();
+	private static volatile DiskCache diskCache;
+	private static volatile boolean diskCacheFailed;
 
 	private static final SimpleLog log = SimpleLog.getLog("ImageUtils");
 
@@ -46,29 +53,72 @@ public class ImageUtils {
 	}
 
 
-	public static Future<BufferedImage> readImg(String url) {
+	/**
+	 * Loads image by url. Images are cached in memory for process lifetime and on disk between runs,
+	 * so if disk cache is populated no network requests are made.
+	 * Future fails with {@link UncheckedIOException} on non-200 response or undecodable image, failed loads aren't cached, next request retries
+	 */
+	public static CompletableFuture<BufferedImage> readImg(String url) {
+		CompletableFuture<BufferedImage> ret = IMAGE_CACHE.computeIfAbsent(url, ImageUtils::loadImg);
+		ret.whenComplete((img, e) -> {
+			if (e != null) IMAGE_CACHE.remove(url, ret);
+		});
+		return ret;
+	}
 
-		if (!IMAGE_CACHE.containsKey(url)) {
-			log.debug("Loading image " + url);
-			Future<BufferedImage> req = Instances.getExecutor().submit(() -> {
-				try {
-					HttpResponse res = Instances.getHttpClient().execute(RequestBuilder.get(url).build());
-					if (res.getStatusLine().getStatusCode() != 200) {
-						log.warn("Unable to load " + url + ": " + res.getStatusLine().getStatusCode());
-						return new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+	private static CompletableFuture<BufferedImage> loadImg(String url) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				DiskCache disk = getDiskCache();
+				ByteBuffer cached = disk == null ? null : disk.get(url);
+				if (cached != null) {
+					BufferedImage read = ImageIO.read(DiskCache.asStream(cached));
+					if (read != null) {
+						log.debug("Image " + url + " loaded from disk cache");
+						return read;
 					}
-					BufferedImage read = ImageIO.read(res.getEntity().getContent());
-					log.debug("Image " + url + " loaded");
-					return read;
+				}
+				log.debug("Loading image " + url);
+				HttpResponse res = Instances.getHttpClient().execute(RequestBuilder.get(url).build());
+				if (res.getStatusLine().getStatusCode() != 200) {
+					EntityUtils.consumeQuietly(res.getEntity());
+					throw new IOException("Unable to load " + url + ": " + res.getStatusLine().getStatusCode());
+				}
+				byte[] content = EntityUtils.toByteArray(res.getEntity());
+				BufferedImage read = ImageIO.read(new ByteArrayInputStream(content));
+				if (read == null) throw new IOException("Unsupported image format of " + url);
+				if (disk != null) {
+					disk.put(url, content);
+				}
+				log.debug("Image " + url + " loaded");
+				return read;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, BoxerExecutors.io());
+	}
 
-				} catch (IOException e) {
-					throw new UncheckedIOException(e);
+	/**
+	 * Cache is placed in <code>boxer.cache.dir</code> (default is ~/.cache/poi-boxer) and limited by <code>boxer.cache.maxBytes</code> (default is 64MB).
+	 * Directory can be prepopulated to work offline
+	 * @return disk cache, or null if cache directory is unavailable
+	 */
+	public static DiskCache getDiskCache() {
+		DiskCache ret = diskCache;
+		if (ret == null && !diskCacheFailed) {
+			synchronized (ImageUtils.class) {
+				if (diskCache == null && !diskCacheFailed) {
+					Path dir = Paths.get(System.getProperty("boxer.cache.dir", Paths.get(System.getProperty("user.home"), ".cache", "poi-boxer").toString()));
+					try {
+						diskCache = new DiskCache(dir, Long.getLong("boxer.cache.maxBytes", 64L << 20));
+					} catch (IOException e) {
+						log.warn("Disk cache disabled, unable to use " + dir + ": " + e);
+						diskCacheFailed = true;
+					}
 				}
-			});
-			IMAGE_CACHE.put(url, req);
-			return req;
-		} else {
-			return IMAGE_CACHE.get(url);
+				ret = diskCache;
+			}
 		}
+		return ret;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,115 @@
+package com.gt22.boxer.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Thread-safe bounded cache, least recently used entries are evicted first.
+ * Values are computed outside of lock, so slow loaders don't block other keys, but same key may be computed twice under race
+ */
+public class LruCache<K, V> {
+	private final int maxSize;
+	private final Map<K, V> map;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	public LruCache(int maxSize) {
+		if (maxSize <= 0) throw new IllegalArgumentException("Cache size should be positive, got " + maxSize);
+		this.maxSize = maxSize;
+		this.map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				if (size() > LruCache.this.maxSize) {
+					evictions.increment();
+					onEvict(eldest.getKey(), eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	public V get(K key) {
+		V ret;
+		synchronized (map) {
+			ret = map.get(key);
+		}
+		(ret == null ? misses : hits).increment();
+		return ret;
+	}
+
+	public V get(K key, Function<? super K, ? extends V> loader) {
+		V ret = get(key);
+		if (ret != null) return ret;
+		V loaded = loader.apply(key);
+		synchronized (map) {
+			ret = map.putIfAbsent(key, loaded);
+		}
+		return ret == null ? loaded : ret;
+	}
+
+	public void put(K key, V value) {
+		synchronized (map) {
+			map.put(key, value);
+		}
+	}
+
+	public void remove(K key) {
+		synchronized (map) {
+			map.remove(key);
+		}
+	}
+
+	/**
+	 * Removes entry only if key is still mapped to value
+	 */
+	public void remove(K key, V value) {
+		synchronized (map) {
+			map.remove(key, value);
+		}
+	}
+
+	public int size() {
+		synchronized (map) {
+			return map.size();
+		}
+	}
+
+	/**
+	 * Called under lock when entry is evicted
+	 */
+	protected void onEvict(K key, V value) {
+	}
+
+	public Stats getStats() {
+		return new Stats(hits.sum(), misses.sum(), evictions.sum(), size());
+	}
+
+	public static class Stats {
+		public final long hits;
+		public final long misses;
+		public final long evictions;
+		public final int size;
+
+		Stats(long hits, long misses, long evictions, int size) {
+			this.hits = hits;
+			this.misses = misses;
+			this.evictions = evictions;
+			this.size = size;
+		}
+
+		public double getHitRate() {
+			long total = hits + misses;
+			return total == 0 ? 0 : (double) hits / total;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("size: %d, hits: %d, misses: %d (%.1f%% hit rate), evictions: %d", size, hits, misses, getHitRate() * 100, evictions);
+		}
+	}
+}
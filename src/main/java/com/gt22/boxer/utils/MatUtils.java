@@ -0,0 +1,278 @@
+package com.gt22.boxer.utils;
+
+import org.bytedeco.javacpp.BytePointer;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+
+import static org.bytedeco.javacpp.opencv_core.*;
+import static org.bytedeco.javacpp.opencv_imgcodecs.*;
+import static org.bytedeco.javacpp.opencv_imgproc.*;
+
+/**
+ * Conversions between files, BufferedImages and Mats without going through javacv Frame.
+ * Every conversion costs at most one copy of pixel data
+ */
+public class MatUtils {
+	/**
+	 * Decodes file straight into native BGR Mat, formats unsupported by OpenCV (eg. gif) are decoded by ImageIO
+	 * @return BGR image, or null if format isn't supported at all
+	 */
+	public static Mat read(File f) throws IOException {
+		long start = System.nanoTime();
+		//Orientation is ignored to produce same pixels as ImageIO
+		Mat m = imread(f.getAbsolutePath(), IMREAD_COLOR | IMREAD_IGNORE_ORIENTATION);
+		if (m == null || m.empty()) {
+			BufferedImage img = ImageIO.read(f);
+			m = img == null ? null : toBgr(wrap(img));
+		}
+		return decoded(m, f.length(), start);
+	}
+
+	/**
+	 * Decodes image downscaled by factor, full resolution image is never held in memory.
+	 * Jpeg is downscaled by decoder itself when factor is 2, 4 or 8, other formats and factors are subsampled by ImageIO row by row
+	 * @return BGR image, or null if format isn't supported at all
+	 */
+	public static Mat readSubsampled(File f, int factor) throws IOException {
+		if (factor == 1) return read(f);
+		long start = System.nanoTime();
+		int reduced = factor == 2 ? IMREAD_REDUCED_COLOR_2 : factor == 4 ? IMREAD_REDUCED_COLOR_4 : factor == 8 ? IMREAD_REDUCED_COLOR_8 : -1;
+		//Other formats are decoded in full and then resized by OpenCV, which is exactly what should be avoided
+		if (reduced != -1 && isJpeg(f)) {
+			Mat m = imread(f.getAbsolutePath(), reduced | IMREAD_IGNORE_ORIENTATION);
+			if (m != null && !m.empty()) return decoded(m, f.length(), start);
+		}
+		try (ImageInputStream in = ImageIO.createImageInputStream(f)) {
+			ImageReader reader = reader(in);
+			if (reader == null) return null;
+			try {
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceSubsampling(factor, factor, 0, 0);
+				return decoded(toBgr(wrap(reader.read(0, param))), f.length(), start);
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+
+	/**
+	 * Reads only image header
+	 * @return image size, or null if format isn't supported by ImageIO
+	 */
+	public static Dimension readSize(File f) throws IOException {
+		try (ImageInputStream in = ImageIO.createImageInputStream(f)) {
+			ImageReader reader = reader(in);
+			if (reader == null) return null;
+			try {
+				return new Dimension(reader.getWidth(0), reader.getHeight(0));
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+
+	/**
+	 * @return reader with input set, or null if there is no reader for stream
+	 */
+	public static ImageReader reader(ImageInputStream in) {
+		if (in == null) return null;
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+		if (!readers.hasNext()) return null;
+		ImageReader ret = readers.next();
+		ret.setInput(in);
+		return ret;
+	}
+
+	/**
+	 * Encodes image by extension of file with default options, see {@link ImageEncoder}
+	 */
+	public static void write(Mat m, File f) throws IOException {
+		ImageEncoder.DEFAULT.write(m, f.toPath());
+	}
+
+	/**
+	 * Decodes encoded image from memory, formats unsupported by OpenCV are decoded by ImageIO
+	 * @return BGR image, or null if format isn't supported at all
+	 */
+	public static Mat decode(byte[] data, int length) throws IOException {
+		long start = System.nanoTime();
+		Mat buf = new Mat(1, length, CV_8UC1, new BytePointer(data).capacity(length));
+		Mat m = imdecode(buf, IMREAD_COLOR | IMREAD_IGNORE_ORIENTATION);
+		buf.release();
+		if (m == null || m.empty()) {
+			BufferedImage img = ImageIO.read(new ByteArrayInputStream(data, 0, length));
+			m = img == null ? null : toBgr(wrap(img));
+		}
+		return decoded(m, length, start);
+	}
+
+	/**
+	 * Encodes image in memory with default options, see {@link ImageEncoder}
+	 * @param format extension without dot
+	 */
+	public static byte[] encode(Mat m, String format) throws IOException {
+		try (ImageEncoder.Encoded data = ImageEncoder.DEFAULT.encode(m, format)) {
+			return data.toArray();
+		}
+	}
+
+	/**
+	 * Copies image pixels into native Mat.
+	 * BGR and grey images are copied as is, int images are copied as BGRA, other types are converted first
+	 */
+	public static Mat wrap(BufferedImage img) {
+		int w = img.getWidth(), h = img.getHeight();
+		switch (img.getType()) {
+			case BufferedImage.TYPE_3BYTE_BGR:
+				if (isPacked(img, w * h * 3)) return copyBytes(img, CV_8UC3);
+				break;
+			case BufferedImage.TYPE_BYTE_GRAY:
+				if (isPacked(img, w * h)) return copyBytes(img, CV_8UC1);
+				break;
+			case BufferedImage.TYPE_INT_ARGB:
+			case BufferedImage.TYPE_INT_RGB:
+				if (isPacked(img, w * h)) {
+					Mat m = new Mat(h, w, CV_8UC4);
+					//Little endian ARGB int is BGRA in memory
+					buffer(m).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(((DataBufferInt) img.getRaster().getDataBuffer()).getData());
+					if (img.getType() == BufferedImage.TYPE_INT_RGB) {
+						Mat bgr = new Mat();
+						cvtColor(m, bgr, COLOR_BGRA2BGR);
+						m.release();
+						return bgr;
+					}
+					return m;
+				}
+				break;
+		}
+		return wrap(convert(img, img.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_3BYTE_BGR));
+	}
+
+	/**
+	 * Same as {@link #wrap(BufferedImage)}, but always produces BGRA
+	 */
+	public static Mat wrapBgra(BufferedImage img) {
+		return wrap(img.getType() == BufferedImage.TYPE_INT_ARGB ? img : convert(img, BufferedImage.TYPE_INT_ARGB));
+	}
+
+	/**
+	 * Copies Mat into BufferedImage, grey Mat produces grey image, BGRA produces ARGB and BGR produces BGR
+	 */
+	public static BufferedImage toBufferedImage(Mat m) {
+		if (!m.isContinuous()) m = m.clone();
+		BufferedImage ret;
+		switch (m.channels()) {
+			case 1:
+				ret = new BufferedImage(m.cols(), m.rows(), BufferedImage.TYPE_BYTE_GRAY);
+				m.data().get(((DataBufferByte) ret.getRaster().getDataBuffer()).getData());
+				break;
+			case 3:
+				ret = new BufferedImage(m.cols(), m.rows(), BufferedImage.TYPE_3BYTE_BGR);
+				m.data().get(((DataBufferByte) ret.getRaster().getDataBuffer()).getData());
+				break;
+			case 4:
+				ret = new BufferedImage(m.cols(), m.rows(), BufferedImage.TYPE_INT_ARGB);
+				buffer(m).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(((DataBufferInt) ret.getRaster().getDataBuffer()).getData());
+				break;
+			default:
+				throw new IllegalArgumentException("Unsupported channel count: " + m.channels());
+		}
+		return ret;
+	}
+
+	/**
+	 * @return m itself if it is BGR, otherwise converted copy
+	 */
+	public static Mat toBgr(Mat m) {
+		if (m.channels() == 3) return m;
+		Mat ret = new Mat();
+		cvtColor(m, ret, m.channels() == 4 ? COLOR_BGRA2BGR : COLOR_GRAY2BGR);
+		return ret;
+	}
+
+	/**
+	 * Converts BGR, BGRA or grey image to grey, reusing dst buffer
+	 */
+	public static Mat toGrey(Mat src, Mat dst) {
+		long start = System.nanoTime();
+		switch (src.channels()) {
+			case 1:
+				src.copyTo(dst);
+				break;
+			case 4:
+				cvtColor(src, dst, COLOR_BGRA2GRAY);
+				break;
+			default:
+				cvtColor(src, dst, COLOR_BGR2GRAY);
+		}
+		Metrics.Stage.GREY.record(start);
+		return dst;
+	}
+
+	public static ByteBuffer buffer(Mat m) {
+		BytePointer data = m.data();
+		return data.capacity(m.total() * m.elemSize()).asByteBuffer();
+	}
+
+	/**
+	 * Records decode of successfully decoded image
+	 */
+	private static Mat decoded(Mat m, long bytes, long start) {
+		if (m != null) {
+			Metrics.Stage.DECODE.record(start);
+			Metrics.DECODED_BYTES.add(bytes);
+			Metrics.DECODED_PIXELS.add(m.total());
+		}
+		return m;
+	}
+
+	private static boolean isPacked(BufferedImage img, int expectedSize) {
+		//Subimages share bigger buffer and can't be copied in one piece
+		return img.getRaster().getDataBuffer().getSize() == expectedSize && img.getRaster().getDataBuffer().getNumBanks() == 1
+			&& img.getRaster().getSampleModelTranslateX() == 0 && img.getRaster().getSampleModelTranslateY() == 0;
+	}
+
+	private static Mat copyBytes(BufferedImage img, int type) {
+		Mat m = new Mat(img.getHeight(), img.getWidth(), type);
+		byte[] data = ((DataBufferByte) img.getRaster().getDataBuffer()).getData();
+		m.data().put(data, 0, data.length);
+		return m;
+	}
+
+	private static BufferedImage convert(BufferedImage img, int type) {
+		BufferedImage ret = new BufferedImage(img.getWidth(), img.getHeight(), type);
+		Graphics2D g = ret.createGraphics();
+		g.drawImage(img, 0, 0, null);
+		g.dispose();
+		return ret;
+	}
+
+	private static boolean isJpeg(File f) throws IOException {
+		try (InputStream in = new FileInputStream(f)) {
+			return in.read() == 0xFF && in.read() == 0xD8 && in.read() == 0xFF;
+		}
+	}
+
+	/**
+	 * @return lower case extension without dot, or empty string if there is none
+	 */
+	public static String extension(String name) {
+		int dotIndex = name.lastIndexOf('.');
+		return dotIndex < 0 ? "" : name.substring(dotIndex + 1).toLowerCase();
+	}
+}
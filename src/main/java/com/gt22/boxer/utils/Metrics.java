@@ -0,0 +1,302 @@
+package com.gt22.boxer.utils;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Process-wide counters and latency histograms of hot path stages.
+ * Recording is a couple of uncontended {@link LongAdder} increments, so it is always on.
+ * Values that are already tracked elsewhere (caches, pools) are registered as sources and read only on export.
+ * Exported as Prometheus text (names prefixed by <code>boxer_</code>) or JSON, both are read without locking,
+ * so concurrent recording may make one export slightly inconsistent
+ */
+public class Metrics {
+	private static final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+	private static final long START = System.currentTimeMillis();
+
+	//1-2-5 series from 100us to 50s
+	private static final long[] LATENCY_BOUNDS = {
+		100_000L, 200_000L, 500_000L, 1_000_000L, 2_000_000L, 5_000_000L, 10_000_000L, 20_000_000L, 50_000_000L,
+		100_000_000L, 200_000_000L, 500_000_000L, 1_000_000_000L, 2_000_000_000L, 5_000_000_000L,
+		10_000_000_000L, 20_000_000_000L, 50_000_000_000L
+	};
+	private static final long[] FACE_BOUNDS = {0, 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000};
+
+	public enum Stage {
+		DECODE("decode"),
+		GREY("grey"),
+		/** Whole detection of one image as seen by caller, including cache lookup, detector wait and filtering */
+		DETECT("detect"),
+		/** Single cascade pass, image may take several of them (tiles, pre-pass refinement) */
+		DETECT_MULTI_SCALE("detect_multiscale"),
+		/** Single dnn forward pass on batch of images, including blob preparation */
+		DNN_FORWARD("dnn_forward"),
+		/** Loading box artwork and preparing its scaled variants */
+		BOX_LOAD("box_load"),
+		DRAW("draw"),
+		ENCODE("encode");
+
+		private final String label;
+		private final Histogram histogram = new Histogram(LATENCY_BOUNDS);
+
+		Stage(String label) {
+			this.label = label;
+		}
+
+		/**
+		 * @param startNanos {@link System#nanoTime()} at stage start
+		 */
+		public void record(long startNanos) {
+			histogram.observe(System.nanoTime() - startNanos);
+		}
+
+		public Histogram getHistogram() {
+			return histogram;
+		}
+
+		public String getLabel() {
+			return label;
+		}
+	}
+
+	public static final Histogram FACES = new Histogram(FACE_BOUNDS);
+	public static final LongAdder DECODED_BYTES = new LongAdder();
+	public static final LongAdder DECODED_PIXELS = new LongAdder();
+	public static final LongAdder DETECTED_PIXELS = new LongAdder();
+	public static final LongAdder ENCODED_BYTES = new LongAdder();
+	public static final LongAdder ENCODED_PIXELS = new LongAdder();
+
+	private static final Map<String, Source> sources = new ConcurrentHashMap<>();
+
+	/**
+	 * Registers value read on export, replaces previous one with same name
+	 * @param name metric name without prefix, lower case with underscores
+	 */
+	public static void gauge(String name, String help, DoubleSupplier value) {
+		sources.put(name, new Source("gauge", help, value));
+	}
+
+	/**
+	 * Same as {@link #gauge(String, String, DoubleSupplier)}, but value only grows
+	 * @param name should end with <code>_total</code>
+	 */
+	public static void counter(String name, String help, DoubleSupplier value) {
+		sources.put(name, new Source("counter", help, value));
+	}
+
+	public static void writePrometheus(Writer out) throws IOException {
+		StringBuilder sb = new StringBuilder(8192);
+		header(sb, "stage_duration_seconds", "histogram", "Latency of hot path stages");
+		for (Stage s : Stage.values()) {
+			s.histogram.writePrometheus(sb, "boxer_stage_duration_seconds", "stage=\"" + s.label + "\",", 1e9);
+		}
+		header(sb, "faces_per_image", "histogram", "Faces found by one detection");
+		FACES.writePrometheus(sb, "boxer_faces_per_image", "", 1);
+		counter(sb, "decoded_bytes_total", "Encoded bytes read by decoder", DECODED_BYTES.sum());
+		counter(sb, "decoded_pixels_total", "Pixels produced by decoder", DECODED_PIXELS.sum());
+		counter(sb, "detected_pixels_total", "Pixels scanned by cascade or fed to dnn, downscaled passes count their own size", DETECTED_PIXELS.sum());
+		counter(sb, "encoded_bytes_total", "Bytes produced by encoder", ENCODED_BYTES.sum());
+		counter(sb, "encoded_pixels_total", "Pixels consumed by encoder", ENCODED_PIXELS.sum());
+
+		List<BoxerExecutors.Stats> executors = BoxerExecutors.getStats();
+		header(sb, "executor_queued", "gauge", "Tasks waiting in executor queue");
+		for (BoxerExecutors.Stats s : executors) {
+			sb.append("boxer_executor_queued{pool=\"").append(s.name).append("\"} ").append(s.queued).append('\n');
+		}
+		header(sb, "executor_active", "gauge", "Threads running tasks");
+		for (BoxerExecutors.Stats s : executors) {
+			sb.append("boxer_executor_active{pool=\"").append(s.name).append("\"} ").append(s.active).append('\n');
+		}
+		header(sb, "executor_completed_total", "counter", "Tasks completed by executor");
+		for (BoxerExecutors.Stats s : executors) {
+			sb.append("boxer_executor_completed_total{pool=\"").append(s.name).append("\"} ").append(s.completed).append('\n');
+		}
+
+		for (Map.Entry<String, Source> e : new TreeMap<>(sources).entrySet()) {
+			Source f = e.getValue();
+			header(sb, e.getKey(), f.type, f.help);
+			sb.append("boxer_").append(e.getKey()).append(' ').append(f.value.getAsDouble()).append('\n');
+		}
+		out.write(sb.toString());
+	}
+
+	/**
+	 * @return snapshot of all metrics as nested maps, latencies are in milliseconds
+	 */
+	public static Map<String, Object> snapshot() {
+		Map<String, Object> ret = new LinkedHashMap<>();
+		ret.put("timestamp", System.currentTimeMillis());
+		ret.put("uptimeSeconds", (System.currentTimeMillis() - START) / 1000);
+		Map<String, Object> stages = new LinkedHashMap<>();
+		for (Stage s : Stage.values()) {
+			stages.put(s.label, s.histogram.summary(1e6));
+		}
+		ret.put("stages", stages);
+		ret.put("facesPerImage", FACES.summary(1));
+		Map<String, Object> totals = new LinkedHashMap<>();
+		totals.put("decodedBytes", DECODED_BYTES.sum());
+		totals.put("decodedPixels", DECODED_PIXELS.sum());
+		totals.put("detectedPixels", DETECTED_PIXELS.sum());
+		totals.put("encodedBytes", ENCODED_BYTES.sum());
+		totals.put("encodedPixels", ENCODED_PIXELS.sum());
+		ret.put("totals", totals);
+		ret.put("executors", BoxerExecutors.getStats());
+		Map<String, Object> values = new TreeMap<>();
+		sources.forEach((name, f) -> values.put(name, f.value.getAsDouble()));
+		ret.put("values", values);
+		return ret;
+	}
+
+	public static String toJson() {
+		return gson.toJson(snapshot());
+	}
+
+	/**
+	 * Writes JSON snapshot to file, file is replaced atomically so readers never see partial dump
+	 */
+	public static void dump(Path file) throws IOException {
+		Path abs = file.toAbsolutePath();
+		Path tmp = abs.resolveSibling(abs.getFileName() + ".tmp");
+		Files.write(tmp, toJson().getBytes(StandardCharsets.UTF_8));
+		Files.move(tmp, abs, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Dumps snapshot to file every period on scheduler, failed dumps are retried next period
+	 */
+	public static ScheduledFuture<?> dumpEvery(Path file, long period, TimeUnit unit) {
+		return BoxerExecutors.scheduler().scheduleAtFixedRate(() -> {
+			try {
+				dump(file);
+			} catch (IOException | RuntimeException ignored) { //Exception would cancel further dumps
+			}
+		}, period, period, unit);
+	}
+
+	private static void header(StringBuilder sb, String name, String type, String help) {
+		sb.append("# HELP boxer_").append(name).append(' ').append(help).append('\n');
+		sb.append("# TYPE boxer_").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void counter(StringBuilder sb, String name, String help, long value) {
+		header(sb, name, "counter", help);
+		sb.append("boxer_").append(name).append(' ').append(value).append('\n');
+	}
+
+	private static class Source {
+		final String type;
+		final String help;
+		final DoubleSupplier value;
+
+		Source(String type, String help, DoubleSupplier value) {
+			this.type = type;
+			this.help = help;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Counts of values in fixed buckets, bucket i holds values in (bounds[i - 1], bounds[i]], last one holds everything bigger.
+	 * Quantiles are estimated by interpolating inside bucket, so they are only as precise as buckets are
+	 */
+	public static class Histogram {
+		private final long[] bounds;
+		private final LongAdder[] buckets;
+		private final LongAdder sum = new LongAdder();
+		private final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+		public Histogram(long[] bounds) {
+			this.bounds = bounds.clone();
+			this.buckets = new LongAdder[bounds.length + 1];
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		public void observe(long value) {
+			int i = Arrays.binarySearch(bounds, value);
+			buckets[i < 0 ? -i - 1 : i].increment();
+			sum.add(value);
+			max.accumulate(value);
+		}
+
+		public long getCount() {
+			long ret = 0;
+			for (LongAdder b : buckets) {
+				ret += b.sum();
+			}
+			return ret;
+		}
+
+		/**
+		 * @param q quantile in 0-1
+		 * @return estimated value, or 0 if nothing was observed
+		 */
+		public double quantile(double q) {
+			long[] counts = new long[buckets.length];
+			long total = 0;
+			for (int i = 0; i < counts.length; i++) {
+				total += counts[i] = buckets[i].sum();
+			}
+			if (total == 0) return 0;
+			double rank = q * total;
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] > 0 && seen + counts[i] >= rank) {
+					long lower = i == 0 ? Math.min(0, bounds[0]) : bounds[i - 1];
+					//Overflow bucket has no upper bound, max is the best guess
+					long upper = i == bounds.length ? Math.max(max.get(), lower) : bounds[i];
+					//Interpolation assumes values spread over whole bucket, but none of them is above max
+					return Math.min(lower + (upper - lower) * ((rank - seen) / counts[i]), max.get());
+				}
+				seen += counts[i];
+			}
+			return max.get();
+		}
+
+		/**
+		 * @param unit divisor of values, eg. 1e6 for nanoseconds reported as milliseconds
+		 */
+		Map<String, Object> summary(double unit) {
+			Map<String, Object> ret = new LinkedHashMap<>();
+			long count = getCount();
+			ret.put("count", count);
+			ret.put("mean", count == 0 ? 0 : sum.sum() / unit / count);
+			ret.put("p50", quantile(0.5) / unit);
+			ret.put("p95", quantile(0.95) / unit);
+			ret.put("p99", quantile(0.99) / unit);
+			ret.put("max", count == 0 ? 0 : max.get() / unit);
+			return ret;
+		}
+
+		/**
+		 * @param labels extra labels each followed by comma, or empty string
+		 * @param unit divisor of values, Prometheus expects base units
+		 */
+		void writePrometheus(StringBuilder sb, String name, String labels, double unit) {
+			long cumulative = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				cumulative += buckets[i].sum();
+				sb.append(name).append("_bucket{").append(labels).append("le=\"")
+					.append(i == bounds.length ? "+Inf" : String.valueOf(bounds[i] / unit)).append("\"} ").append(cumulative).append('\n');
+			}
+			String group = labels.isEmpty() ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+			sb.append(name).append("_sum").append(group).append(' ').append(sum.sum() / unit).append('\n');
+			sb.append(name).append("_count").append(group).append(' ').append(cumulative).append('\n');
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package com.gt22.boxer.utils;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over rects packed as in {@link RectUtils}, built once and read-only afterwards.
+ * Cell size follows mean rect size, so each rect spans few cells and each cell holds few rects,
+ * queries cost amount of nearby rects instead of amount of all rects
+ */
+public class RectIndex {
+	//Sparse rects over huge area would make grid mostly empty cells
+	private static final int MAX_CELLS_PER_RECT = 4;
+
+	private final int[] rects;
+	private final int count;
+	private final int originX, originY, cellSize, cols, rows;
+	//Rects of cell c are cellRects[cellStart[c]] until cellRects[cellStart[c + 1]]
+	private final int[] cellStart;
+	private final int[] cellRects;
+
+	/**
+	 * @param rects packed rects, array isn't copied and shouldn't be modified while index is used
+	 */
+	public RectIndex(int[] rects) {
+		this.rects = rects;
+		this.count = rects.length / 4;
+		int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+		long sizeSum = 0;
+		for (int i = 0; i < count; i++) {
+			int o = i * 4;
+			minX = Math.min(minX, rects[o]);
+			minY = Math.min(minY, rects[o + 1]);
+			maxX = Math.max(maxX, rects[o] + rects[o + 2]);
+			maxY = Math.max(maxY, rects[o + 1] + rects[o + 3]);
+			sizeSum += Math.max(rects[o + 2], rects[o + 3]);
+		}
+		if (count == 0) {
+			minX = minY = maxX = maxY = 0;
+		}
+		originX = minX;
+		originY = minY;
+		long width = Math.max(1, (long) maxX - minX), height = Math.max(1, (long) maxY - minY);
+		long size = Math.max(1, count == 0 ? 1 : sizeSum / count);
+		while (cells(width, size) * cells(height, size) > Math.max(1, (long) count * MAX_CELLS_PER_RECT)) {
+			size *= 2;
+		}
+		cellSize = (int) Math.min(size, Integer.MAX_VALUE);
+		cols = (int) cells(width, size);
+		rows = (int) cells(height, size);
+
+		//Counting sort of rects by cell, first pass counts, second fills
+		cellStart = new int[cols * rows + 1];
+		for (int i = 0; i < count; i++) {
+			int o = i * 4;
+			for (int cy = row(rects[o + 1]); cy <= row(bottom(o)); cy++) {
+				for (int cx = col(rects[o]); cx <= col(right(o)); cx++) {
+					cellStart[cy * cols + cx + 1]++;
+				}
+			}
+		}
+		for (int c = 0; c < cols * rows; c++) {
+			cellStart[c + 1] += cellStart[c];
+		}
+		cellRects = new int[cellStart[cols * rows]];
+		int[] fill = Arrays.copyOf(cellStart, cols * rows);
+		for (int i = 0; i < count; i++) {
+			int o = i * 4;
+			for (int cy = row(rects[o + 1]); cy <= row(bottom(o)); cy++) {
+				for (int cx = col(rects[o]); cx <= col(right(o)); cx++) {
+					cellRects[fill[cy * cols + cx]++] = i;
+				}
+			}
+		}
+	}
+
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Point hit test, rect contains its top left edge but not bottom right one
+	 * @return index of smallest rect containing point, latest one (drawn on top) if several are equal, or -1 if there is none
+	 */
+	public int at(double x, double y) {
+		if (count == 0 || x < originX || y < originY) return -1;
+		int cx = col((int) x), cy = row((int) y);
+		int ret = -1;
+		long retArea = Long.MAX_VALUE;
+		for (int k = cellStart[cy * cols + cx]; k < cellStart[cy * cols + cx + 1]; k++) {
+			int i = cellRects[k], o = i * 4;
+			if (x < rects[o] || y < rects[o + 1] || x >= rects[o] + rects[o + 2] || y >= rects[o + 1] + rects[o + 3]) continue;
+			long area = (long) rects[o + 2] * rects[o + 3];
+			if (area < retArea || (area == retArea && i > ret)) {
+				ret = i;
+				retArea = area;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @return indices of rects intersecting given one, in ascending order, which is drawing order
+	 */
+	public int[] overlapping(int x, int y, int width, int height) {
+		if (count == 0) return new int[0];
+		int[] ret = new int[8];
+		int found = 0;
+		int c0 = clampCol(col(x)), c1 = clampCol(col(x + Math.max(width, 1) - 1));
+		int r0 = clampRow(row(y)), r1 = clampRow(row(y + Math.max(height, 1) - 1));
+		for (int cy = r0; cy <= r1; cy++) {
+			for (int cx = c0; cx <= c1; cx++) {
+				for (int k = cellStart[cy * cols + cx]; k < cellStart[cy * cols + cx + 1]; k++) {
+					int i = cellRects[k], o = i * 4;
+					//Rect spanning several cells is reported only from first cell shared with query
+					if (Math.max(col(rects[o]), c0) != cx || Math.max(row(rects[o + 1]), r0) != cy) continue;
+					if (rects[o] >= x + width || x >= rects[o] + rects[o + 2] || rects[o + 1] >= y + height || y >= rects[o + 1] + rects[o + 3]) continue;
+					if (found == ret.length) ret = Arrays.copyOf(ret, found * 2);
+					ret[found++] = i;
+				}
+			}
+		}
+		ret = Arrays.copyOf(ret, found);
+		Arrays.sort(ret);
+		return ret;
+	}
+
+	/**
+	 * @return indices of rects intersecting rect i, including i itself
+	 */
+	public int[] overlapping(int i) {
+		int o = i * 4;
+		return overlapping(rects[o], rects[o + 1], rects[o + 2], rects[o + 3]);
+	}
+
+	private static long cells(long span, long size) {
+		return (span + size - 1) / size;
+	}
+
+	private int right(int o) {
+		return rects[o] + Math.max(rects[o + 2], 1) - 1;
+	}
+
+	private int bottom(int o) {
+		return rects[o + 1] + Math.max(rects[o + 3], 1) - 1;
+	}
+
+	private int col(int x) {
+		return Math.min(cols - 1, (int) (((long) x - originX) / cellSize));
+	}
+
+	private int row(int y) {
+		return Math.min(rows - 1, (int) (((long) y - originY) / cellSize));
+	}
+
+	private int clampCol(int c) {
+		return Math.max(0, Math.min(cols - 1, c));
+	}
+
+	private int clampRow(int r) {
+		return Math.max(0, Math.min(rows - 1, r));
+	}
+}
@@ -0,0 +1,179 @@
+package com.gt22.boxer.utils;
+
+import java.util.Arrays;
+
+import static org.bytedeco.javacpp.opencv_core.Rect;
+import static org.bytedeco.javacpp.opencv_core.RectVector;
+
+/**
+ * Operations over rects packed into int arrays as x, y, width, height
+ */
+public class RectUtils {
+	//Below that scanning kept rects is cheaper than building index
+	private static final int INDEX_THRESHOLD = 64;
+
+	public static int[] pack(RectVector rects) {
+		int[] ret = new int[(int) rects.size() * 4];
+		for (int i = 0; i < rects.size(); i++) {
+			Rect r = rects.get(i);
+			ret[i * 4] = r.x();
+			ret[i * 4 + 1] = r.y();
+			ret[i * 4 + 2] = r.width();
+			ret[i * 4 + 3] = r.height();
+		}
+		return ret;
+	}
+
+	public static RectVector unpack(int[] rects, int count) {
+		RectVector ret = new RectVector(count);
+		for (int i = 0; i < count; i++) {
+			Rect r = ret.get(i);
+			r.x(rects[i * 4]);
+			r.y(rects[i * 4 + 1]);
+			r.width(rects[i * 4 + 2]);
+			r.height(rects[i * 4 + 3]);
+		}
+		return ret;
+	}
+
+	/**
+	 * @return rects whose width is within [min, max], 0 means not limited
+	 */
+	public static int[] filterSize(int[] rects, int min, int max) {
+		if (min <= 0 && max <= 0) return rects;
+		int[] ret = new int[rects.length];
+		int count = 0;
+		for (int o = 0; o < rects.length; o += 4) {
+			int size = rects[o + 2];
+			if (size >= min && (max <= 0 || size <= max)) {
+				System.arraycopy(rects, o, ret, count * 4, 4);
+				count++;
+			}
+		}
+		return count * 4 == rects.length ? rects : Arrays.copyOf(ret, count * 4);
+	}
+
+	/**
+	 * Greedy non-max suppression, bigger rects have priority.
+	 * Rect is suppressed if its IoU with kept one is above threshold,
+	 * or if it mostly lies inside kept one (cut faces on tile borders are detected smaller).
+	 * Many rects are checked only against overlapping ones through {@link RectIndex}
+	 * @return kept rects, packed
+	 */
+	public static int[] suppress(int[] rects, double iouThreshold, double containmentThreshold) {
+		int[] kept = group(rects, iouThreshold, containmentThreshold, null);
+		int[] ret = new int[kept.length * 4];
+		for (int k = 0; k < kept.length; k++) {
+			System.arraycopy(rects, kept[k] * 4, ret, k * 4, 4);
+		}
+		return ret;
+	}
+
+	/**
+	 * Groups rects same as {@link #suppress(int[], double, double)}, but every kept rect is replaced by mean of its group
+	 * @return merged rects, packed
+	 */
+	public static int[] merge(int[] rects, double iouThreshold, double containmentThreshold) {
+		int[] owner = new int[rects.length / 4];
+		int[] kept = group(rects, iouThreshold, containmentThreshold, owner);
+		int[] rank = new int[owner.length];
+		for (int k = 0; k < kept.length; k++) {
+			rank[kept[k]] = k;
+		}
+		//Sums of left, top, right, bottom and amount of rects per group
+		long[] sums = new long[kept.length * 5];
+		for (int i = 0; i < owner.length; i++) {
+			int s = rank[owner[i]] * 5, o = i * 4;
+			sums[s] += rects[o];
+			sums[s + 1] += rects[o + 1];
+			sums[s + 2] += rects[o] + rects[o + 2];
+			sums[s + 3] += rects[o + 1] + rects[o + 3];
+			sums[s + 4]++;
+		}
+		int[] ret = new int[kept.length * 4];
+		for (int k = 0; k < kept.length; k++) {
+			int s = k * 5, o = k * 4;
+			long n = sums[s + 4];
+			ret[o] = (int) Math.round((double) sums[s] / n);
+			ret[o + 1] = (int) Math.round((double) sums[s + 1] / n);
+			ret[o + 2] = (int) Math.round((double) sums[s + 2] / n) - ret[o];
+			ret[o + 3] = (int) Math.round((double) sums[s + 3] / n) - ret[o + 1];
+		}
+		return ret;
+	}
+
+	/**
+	 * Expands rects by factor of their width around center and makes them square, same as {@link com.gt22.boxer.FacialDetector#expandAndSquareRect}
+	 * @return expanded copy
+	 */
+	public static int[] expandAndSquare(int[] rects, float expandFactor) {
+		int[] ret = new int[rects.length];
+		for (int o = 0; o < rects.length; o += 4) {
+			int shift = (int) (rects[o + 2] * expandFactor);
+			int halfShift = shift / 2;
+			ret[o] = rects[o] - halfShift;
+			ret[o + 1] = rects[o + 1] - halfShift;
+			ret[o + 2] = rects[o + 2] + shift;
+			ret[o + 3] = ret[o + 2];
+		}
+		return ret;
+	}
+
+	/**
+	 * @param owner if not null, receives index of kept rect that suppressed each rect, kept rects own themselves
+	 * @return indices of kept rects in order of priority
+	 */
+	private static int[] group(int[] rects, double iouThreshold, double containmentThreshold, int[] owner) {
+		int n = rects.length / 4;
+		//Area in high half and reversed index in low one, so walking sorted keys backwards goes by descending area, then ascending index
+		long[] order = new long[n];
+		for (int i = 0; i < n; i++) order[i] = Math.min(area(rects, i), Integer.MAX_VALUE) << 32 | (n - 1 - i);
+		Arrays.sort(order);
+
+		RectIndex index = n > INDEX_THRESHOLD ? new RectIndex(rects) : null;
+		//Position in kept list, -1 if not kept
+		int[] rank = new int[n];
+		Arrays.fill(rank, -1);
+		int[] kept = new int[n];
+		int keptCount = 0;
+		for (int j = n - 1; j >= 0; j--) {
+			int idx = n - 1 - (int) order[j], o = idx * 4;
+			int by = -1; //Rank of kept rect that suppresses this one, highest priority wins
+			if (index != null) {
+				for (int other : index.overlapping(idx)) {
+					int r = rank[other];
+					if (r >= 0 && (by < 0 || r < by) && suppresses(rects, other * 4, rects, o, iouThreshold, containmentThreshold)) by = r;
+				}
+			} else {
+				for (int k = 0; k < keptCount && by < 0; k++) {
+					if (suppresses(rects, kept[k] * 4, rects, o, iouThreshold, containmentThreshold)) by = k;
+				}
+			}
+			if (by < 0) {
+				rank[idx] = keptCount;
+				kept[keptCount++] = idx;
+				if (owner != null) owner[idx] = idx;
+			} else if (owner != null) {
+				owner[idx] = kept[by];
+			}
+		}
+		return Arrays.copyOf(kept, keptCount);
+	}
+
+	private static boolean suppresses(int[] kept, int ko, int[] rects, int o, double iouThreshold, double containmentThreshold) {
+		long inter = intersection(rects, o, kept, ko);
+		if (inter == 0) return false;
+		long a = (long) rects[o + 2] * rects[o + 3], b = (long) kept[ko + 2] * kept[ko + 3];
+		return inter > iouThreshold * (a + b - inter) || inter > containmentThreshold * Math.min(a, b);
+	}
+
+	private static long area(int[] rects, int i) {
+		return (long) rects[i * 4 + 2] * rects[i * 4 + 3];
+	}
+
+	private static long intersection(int[] a, int ao, int[] b, int bo) {
+		long w = Math.min(a[ao] + a[ao + 2], b[bo] + b[bo + 2]) - Math.max(a[ao], b[bo]);
+		long h = Math.min(a[ao + 1] + a[ao + 3], b[bo + 1] + b[bo + 3]) - Math.max(a[ao + 1], b[bo + 1]);
+		return w <= 0 || h <= 0 ? 0 : w * h;
+	}
+}
@@ -0,0 +1,118 @@
+package com.gt22.boxer.video;
+
+import org.bytedeco.javacpp.DoublePointer;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.bytedeco.javacpp.opencv_core.*;
+import static org.bytedeco.javacpp.opencv_imgproc.TM_CCOEFF_NORMED;
+import static org.bytedeco.javacpp.opencv_imgproc.matchTemplate;
+
+/**
+ * Follows faces between keyframes using template matching.
+ * Each track keeps grey patch of face from previous frame and searches for it in window around previous position,
+ * so cost depends only on face sizes, not on frame size
+ */
+public class FaceTracker {
+	/** Tracks with lower normalized correlation are considered lost */
+	private static final double MIN_SCORE = 0.6;
+	/** Search window is expanded by this part of face size in each direction */
+	private static final float SEARCH_MARGIN = 0.5f;
+
+	public static class Track {
+		public int x, y, width, height;
+		private final Mat template;
+
+		private Track(Mat grey, Rect r) {
+			x = r.x();
+			y = r.y();
+			width = r.width();
+			height = r.height();
+			Mat patch = new Mat(grey, r);
+			template = patch.clone();
+			patch.deallocate();
+		}
+	}
+
+	private final List<Track> tracks = new ArrayList<>();
+	private final Mat result = new Mat();
+	private final DoublePointer score = new DoublePointer(1);
+	private final Point location = new Point();
+	//Reused for every roi, headers of roi mats are freed right after use instead of waiting for GC
+	private final Rect roi = new Rect();
+
+	/**
+	 * Replaces all tracks with fresh detections
+	 */
+	public void reset(Mat grey, RectVector detections) {
+		clear();
+		for (int i = 0; i < detections.size(); i++) {
+			Rect r = clip(detections.get(i), grey);
+			if (r.width() > 0 && r.height() > 0) {
+				tracks.add(new Track(grey, r));
+			}
+		}
+	}
+
+	/**
+	 * Moves tracks to their positions on new frame, lost tracks are dropped
+	 */
+	public void update(Mat grey) {
+		Iterator<Track> it = tracks.iterator();
+		while (it.hasNext()) {
+			Track t = it.next();
+			int marginX = (int) (t.width * SEARCH_MARGIN);
+			int marginY = (int) (t.height * SEARCH_MARGIN);
+			int sx = Math.max(0, t.x - marginX);
+			int sy = Math.max(0, t.y - marginY);
+			int ex = Math.min(grey.cols(), t.x + t.width + marginX);
+			int ey = Math.min(grey.rows(), t.y + t.height + marginY);
+			if (ex - sx < t.width || ey - sy < t.height) { //Face moved out of frame
+				t.template.release();
+				it.remove();
+				continue;
+			}
+			Mat window = roi(grey, sx, sy, ex - sx, ey - sy);
+			try {
+				matchTemplate(window, t.template, result, TM_CCOEFF_NORMED);
+			} finally {
+				window.deallocate();
+			}
+			minMaxLoc(result, null, score, null, location, null);
+			if (score.get() < MIN_SCORE) {
+				t.template.release();
+				it.remove();
+				continue;
+			}
+			t.x = sx + location.x();
+			t.y = sy + location.y();
+			//Refresh template, so slow changes in pose and lighting are followed
+			Mat patch = roi(grey, t.x, t.y, t.width, t.height);
+			patch.copyTo(t.template);
+			patch.deallocate();
+		}
+	}
+
+	public List<Track> getTracks() {
+		return tracks;
+	}
+
+	public void clear() {
+		tracks.forEach(t -> t.template.release());
+		tracks.clear();
+	}
+
+	private Mat roi(Mat grey, int x, int y, int width, int height) {
+		return new Mat(grey, roi.x(x).y(y).width(width).height(height));
+	}
+
+	private Rect clip(Rect r, Mat m) {
+		int x = Math.max(0, r.x());
+		int y = Math.max(0, r.y());
+		int ex = Math.min(m.cols(), r.x() + r.width());
+		int ey = Math.min(m.rows(), r.y() + r.height());
+		return roi.x(x).y(y).width(ex - x).height(ey - y);
+	}
+}
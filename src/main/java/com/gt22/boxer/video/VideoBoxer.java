@@ -0,0 +1,129 @@
+package com.gt22.boxer.video;
+
+import com.gt22.boxer.BoxDrawer;
+import com.gt22.boxer.DetectionParams;
+import com.gt22.boxer.FacialDetector;
+import com.gt22.boxer.utils.MatUtils;
+import com.gt22.randomutils.log.SimpleLog;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.FrameGrabber;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.bytedeco.javacpp.opencv_core.Mat;
+import static org.bytedeco.javacpp.opencv_core.Rect;
+
+/**
+ * Boxes video stream. Full detection runs only on every n-th frame, faces are tracked by {@link FaceTracker} in between
+ */
+public class VideoBoxer {
+	private static final SimpleLog log = SimpleLog.getLog("Boxer#video");
+	private static final int PROGRESS_INTERVAL = 500;
+
+	private final BoxDrawer drawer;
+	private final float expandBy;
+	private final int keyframeInterval;
+	private final DetectionParams params;
+
+	private final OpenCVFrameConverter.ToMat matConv = new OpenCVFrameConverter.ToMat();
+	private final FaceTracker tracker = new FaceTracker();
+	private final Mat grey = new Mat();
+	//Expanded in place for every track, so drawing frames doesn't allocate rects
+	private final Rect box = new Rect();
+
+	public VideoBoxer(BoxDrawer drawer, float expandBy, int keyframeInterval, DetectionParams params) {
+		if (keyframeInterval <= 0) throw new IllegalArgumentException("Keyframe interval should be positive, got " + keyframeInterval);
+		this.drawer = drawer;
+		this.expandBy = expandBy;
+		this.keyframeInterval = keyframeInterval;
+		this.params = params;
+	}
+
+	/**
+	 * @param maxFrames amount of frames to box, non-positive value means whole stream
+	 * @return amount of boxed frames
+	 */
+	public long box(FrameGrabber grabber, String outFile, long maxFrames) throws Exception {
+		FFmpegFrameRecorder recorder = null;
+		long frames = 0;
+		Exception error = null;
+		try {
+			grabber.start();
+			recorder = new FFmpegFrameRecorder(outFile, grabber.getImageWidth(), grabber.getImageHeight(), grabber.getAudioChannels());
+			double fps = grabber.getFrameRate();
+			recorder.setFrameRate(fps > 0 ? fps : 30); //Cameras may not report frame rate
+			if (grabber.getAudioChannels() > 0) recorder.setSampleRate(grabber.getSampleRate());
+			recorder.start();
+			log.info("Stream opened: " + grabber.getImageWidth() + "x" + grabber.getImageHeight() + "@" + fps);
+
+			long start = System.nanoTime();
+			Frame f;
+			while ((maxFrames <= 0 || frames < maxFrames) && (f = grabber.grab()) != null) {
+				if (f.image == null) { //Audio
+					recorder.record(f);
+					continue;
+				}
+				recorder.record(boxFrame(f, frames));
+				frames++;
+				if (frames % PROGRESS_INTERVAL == 0) {
+					log.info(frames + " frames boxed, " + String.format("%.1f", frames * 1e9 / (System.nanoTime() - start)) + " fps");
+				}
+			}
+			log.info("Stream boxed: " + frames + " frames in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+		} catch (Exception e) {
+			error = e;
+		} finally {
+			tracker.clear();
+			FFmpegFrameRecorder r = recorder;
+			error = runAll(error, () -> {
+				if (r != null) r.stop();
+			}, () -> {
+				if (r != null) r.release();
+			}, grabber::stop, grabber::release);
+		}
+		if (error != null) throw error;
+		return frames;
+	}
+
+	private interface Step {
+		void run() throws Exception;
+	}
+
+	/**
+	 * Runs every cleanup step even if some fail, so failed cleanup doesn't mask error that failed boxing
+	 * @return error, or first cleanup failure if there was no error, other failures are added to it as suppressed
+	 */
+	private static Exception runAll(Exception error, Step... steps) {
+		for (Step s : steps) {
+			try {
+				s.run();
+			} catch (Exception e) {
+				if (error == null) error = e;
+				else error.addSuppressed(e);
+			}
+		}
+		return error;
+	}
+
+	/**
+	 * Draws boxes straight into frame buffer, Mat from converter shares memory with frame
+	 */
+	private Frame boxFrame(Frame f, long index) throws InterruptedException {
+		Mat m = matConv.convert(f);
+		MatUtils.toGrey(m, grey);
+		if (index % keyframeInterval == 0) {
+			tracker.reset(grey, FacialDetector.detectRects(FacialDetector.isGreyEngine() ? grey : m, params));
+		} else {
+			tracker.update(grey);
+		}
+
+		if (m.channels() != 3) return f; //Boxes are blended only onto BGR
+		for (FaceTracker.Track t : tracker.getTracks()) {
+			Rect r = FacialDetector.expandAndSquareRect(box.x(t.x).y(t.y).width(t.width).height(t.height), expandBy);
+			drawer.draw(m, r.x(), r.y(), r.width());
+		}
+		return f;
+	}
+}
@@ -0,0 +1,101 @@
+package com.gt22.boxer;
+
+import org.junit.Test;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.bytedeco.javacpp.opencv_core.Mat;
+import static org.bytedeco.javacpp.opencv_core.RectVector;
+import static org.junit.Assert.*;
+
+public class DetectorPoolTest {
+	private static class Engine implements DetectionEngine {
+		final AtomicInteger closed;
+
+		Engine(AtomicInteger closed) {
+			this.closed = closed;
+		}
+
+		@Override
+		public RectVector detectImage(Mat img, DetectionParams params) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void close() {
+			closed.incrementAndGet();
+		}
+	}
+
+	@Test
+	public void shrinkingClosesIdleAndReleasedEngines() throws InterruptedException {
+		AtomicInteger closed = new AtomicInteger();
+		DetectorPool<Engine> pool = new DetectorPool<>(4, () -> new Engine(closed));
+		pool.prestart(3);
+		Engine busy1 = pool.acquire(), busy2 = pool.acquire();
+		pool.setMaxSize(1);
+		assertEquals(1, closed.get());
+		pool.release(busy1);
+		assertEquals(2, closed.get());
+		pool.release(busy2);
+		assertEquals(2, closed.get());
+		assertEquals(1, pool.getStats().created);
+		assertEquals(1, pool.getStats().idle);
+	}
+
+	@Test
+	public void closeClosesIdleAndReleasedEngines() throws InterruptedException {
+		AtomicInteger closed = new AtomicInteger();
+		DetectorPool<Engine> pool = new DetectorPool<>(2, () -> new Engine(closed));
+		pool.prestart(2);
+		Engine busy = pool.acquire();
+		pool.close();
+		assertEquals(1, closed.get());
+		pool.release(busy);
+		assertEquals(2, closed.get());
+		//Late detections still get engine, which is closed on release
+		pool.with(e -> null);
+		assertEquals(3, closed.get());
+		assertEquals(0, pool.getStats().created);
+	}
+
+	@Test
+	public void growingWakesWaitingCaller() throws Exception {
+		AtomicInteger closed = new AtomicInteger();
+		DetectorPool<Engine> pool = new DetectorPool<>(1, () -> new Engine(closed));
+		Engine busy = pool.acquire();
+		ExecutorService ex = Executors.newSingleThreadExecutor();
+		try {
+			Future<Engine> waiting = ex.submit(pool::acquire);
+			Thread.sleep(50);
+			pool.setMaxSize(2);
+			Engine got = waiting.get(10, TimeUnit.SECONDS);
+			assertNotSame(busy, got);
+			assertEquals(2, pool.getStats().created);
+			assertEquals(1, pool.getStats().contended);
+		} finally {
+			ex.shutdownNow();
+		}
+	}
+
+	@Test
+	public void closeWakesWaitingCaller() throws Exception {
+		AtomicInteger closed = new AtomicInteger();
+		DetectorPool<Engine> pool = new DetectorPool<>(1, () -> new Engine(closed));
+		Engine busy = pool.acquire();
+		ExecutorService ex = Executors.newSingleThreadExecutor();
+		try {
+			Future<Engine> waiting = ex.submit(pool::acquire);
+			Thread.sleep(50);
+			pool.close();
+			pool.release(busy);
+			Engine got = waiting.get(10, TimeUnit.SECONDS);
+			assertNotSame(busy, got);
+			pool.release(got);
+			assertEquals(2, closed.get());
+		} finally {
+			ex.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package com.gt22.boxer;
+
+import com.gt22.boxer.utils.ImageEncoder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.bytedeco.javacpp.opencv_core.Rect;
+import static org.bytedeco.javacpp.opencv_core.RectVector;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares images composited stripe by stripe with boxes drawn onto whole decoded image
+ */
+public class LargeImageBoxerTest {
+	private static final int WIDTH = 333, HEIGHT = 1000;
+	//Stripes of 37 rows, which doesn't align with jpeg blocks or tiff tiles
+	private static final long BUDGET = WIDTH * 8L * 37;
+	//Last one is cut by left edge
+	private static final int[][] FACES = {{20, 30, 80}, {150, 60, 120}, {40, 500, 200}, {250, 880, 100}, {-30, 700, 90}};
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void stripesMatchWholeImage() throws IOException {
+		BufferedImage src = synthetic();
+		File[] inputs = {write(src, "in", "png", false), write(src, "in", "jpg", false), write(src, "progressive", "jpg", true)};
+		String[] outputs = ImageIO.getImageWritersByFormatName("tif").hasNext() ? new String[]{"png", "bmp", "jpg", "tif"} : new String[]{"png", "bmp", "jpg"};
+		LargeImageBoxer boxer = new LargeImageBoxer(Classification.IRRELEVANT, 0, new DetectionParams(), BUDGET, ImageEncoder.DEFAULT);
+		for (File in : inputs) {
+			BufferedImage expected = boxed(ImageIO.read(in));
+			//Jpeg output is compared with whole image encoded by same writer
+			BufferedImage expectedJpeg = ImageIO.read(write(expected, "expected-" + in.getName(), "jpg", false));
+			for (String format : outputs) {
+				File out = new File(tmp.getRoot(), "out-" + in.getName() + "." + format);
+				boxer.composite(in, out, faces());
+				BufferedImage actual = ImageIO.read(out);
+				String msg = in.getName() + " to " + format;
+				assertEquals(msg, WIDTH, actual.getWidth());
+				assertEquals(msg, HEIGHT, actual.getHeight());
+				double diff = meanDiff(format.equals("jpg") ? expectedJpeg : expected, actual);
+				assertTrue(msg + " differs by " + diff, diff < 0.01);
+			}
+		}
+	}
+
+	private static RectVector faces() {
+		RectVector ret = new RectVector(FACES.length);
+		for (int i = 0; i < FACES.length; i++) {
+			Rect r = ret.get(i);
+			r.x(FACES[i][0]);
+			r.y(FACES[i][1]);
+			r.width(FACES[i][2]);
+			r.height(FACES[i][2]);
+		}
+		return ret;
+	}
+
+	private static BufferedImage synthetic() {
+		BufferedImage ret = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+		Graphics2D g = ret.createGraphics();
+		Random rand = new Random(4);
+		for (int i = 0; i < 300; i++) {
+			g.setColor(new Color(rand.nextInt(0x1000000)));
+			g.fillOval(rand.nextInt(WIDTH), rand.nextInt(HEIGHT), 10 + rand.nextInt(60), 10 + rand.nextInt(60));
+		}
+		g.dispose();
+		return ret;
+	}
+
+	private File write(BufferedImage img, String name, String format, boolean progressive) throws IOException {
+		File ret = tmp.newFile(name + "." + format);
+		ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+		ImageWriteParam param = writer.getDefaultWriteParam();
+		if (format.equals("jpg")) {
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(ImageEncoder.DEFAULT.getQuality() / 100f);
+		}
+		if (progressive) param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+		try (ImageOutputStream out = ImageIO.createImageOutputStream(ret)) {
+			writer.setOutput(out);
+			writer.write(null, new IIOImage(img, null, null), param);
+		} finally {
+			writer.dispose();
+		}
+		return ret;
+	}
+
+	private static BufferedImage boxed(BufferedImage img) {
+		BufferedImage ret = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+		Graphics2D g = ret.createGraphics();
+		g.drawImage(img, 0, 0, null);
+		for (int[] f : FACES) {
+			BoxRenderer.draw(g, Classification.IRRELEVANT, f[0], f[1], f[2]);
+		}
+		g.dispose();
+		return ret;
+	}
+
+	private static double meanDiff(BufferedImage a, BufferedImage b) {
+		long sum = 0;
+		for (int y = 0; y < a.getHeight(); y++) {
+			for (int x = 0; x < a.getWidth(); x++) {
+				int p = a.getRGB(x, y), q = b.getRGB(x, y);
+				for (int s = 0; s < 24; s += 8) {
+					sum += Math.abs((p >> s & 0xFF) - (q >> s & 0xFF));
+				}
+			}
+		}
+		return sum / (3.0 * a.getWidth() * a.getHeight());
+	}
+}
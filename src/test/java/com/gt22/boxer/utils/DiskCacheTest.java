@@ -0,0 +1,136 @@
+package com.gt22.boxer.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class DiskCacheTest {
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void storesContentOnceForManyKeys() throws IOException {
+		Path dir = tmp.getRoot().toPath();
+		DiskCache cache = new DiskCache(dir, 1 << 20);
+		assertNull(cache.get("a"));
+		cache.put("a", content(1, 100));
+		cache.put("b", content(1, 100));
+		assertArrayEquals(content(1, 100), bytes(cache.get("a")));
+		assertArrayEquals(content(1, 100), bytes(cache.get("b")));
+		assertEquals(1, count(dir.resolve("objects")));
+		assertEquals("hits: 2, misses: 1", cache.getStats());
+	}
+
+	@Test
+	public void evictsLeastRecentlyRead() throws IOException {
+		Path dir = tmp.getRoot().toPath();
+		DiskCache cache = new DiskCache(dir, 1000);
+		for (int i = 0; i < 3; i++) {
+			cache.put("k" + i, content(i, 300));
+		}
+		//Older than any read, in order of keys, so eviction order doesn't depend on file time resolution
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 3; i++) {
+			Files.setLastModifiedTime(object(dir, content(i, 300)), FileTime.fromMillis(now - (3 - i) * 60_000L));
+		}
+		assertNotNull(cache.get("k0"));
+		cache.put("k3", content(3, 300));
+		assertNull(cache.get("k1"));
+		assertArrayEquals(content(0, 300), bytes(cache.get("k0")));
+		assertArrayEquals(content(2, 300), bytes(cache.get("k2")));
+		assertArrayEquals(content(3, 300), bytes(cache.get("k3")));
+		assertEquals(3, count(dir.resolve("objects")));
+		//Ref of evicted content is overwritten by next put, which shouldn't evict its own object on equal file times
+		for (int i : new int[]{0, 2, 3}) {
+			Files.setLastModifiedTime(object(dir, content(i, 300)), FileTime.fromMillis(now - (4 - i) * 60_000L));
+		}
+		cache.put("k1", content(1, 300));
+		assertArrayEquals(content(1, 300), bytes(cache.get("k1")));
+	}
+
+	@Test
+	public void concurrentWritersNeverExposePartialContent() throws Exception {
+		Path dir = tmp.getRoot().toPath();
+		//Separate instances stand for separate processes sharing directory
+		DiskCache[] caches = {new DiskCache(dir, 1 << 20), new DiskCache(dir, 1 << 20)};
+		int versions = 8;
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<?>> tasks = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				int writer = t;
+				tasks.add(pool.submit(() -> {
+					for (int i = 0; i < 200; i++) {
+						caches[writer % 2].put("key", content((writer + i) % versions, 64 << 10));
+					}
+				}));
+			}
+			for (int t = 0; t < 4; t++) {
+				int reader = t;
+				tasks.add(pool.submit(() -> {
+					for (int i = 0; i < 400; i++) {
+						ByteBuffer read = caches[reader % 2].get("key");
+						if (read == null) continue;
+						byte[] b = bytes(read);
+						assertEquals(64 << 10, b.length);
+						assertArrayEquals(content(b[0], 64 << 10), b);
+					}
+				}));
+			}
+			for (Future<?> f : tasks) {
+				f.get(1, TimeUnit.MINUTES);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		assertEquals(versions, count(dir.resolve("objects")));
+		assertEquals(1, count(dir.resolve("refs")));
+	}
+
+	/**
+	 * @return length bytes, all of them equal to version
+	 */
+	private static byte[] content(int version, int length) {
+		byte[] ret = new byte[length];
+		Arrays.fill(ret, (byte) version);
+		return ret;
+	}
+
+	private static byte[] bytes(ByteBuffer buf) {
+		byte[] ret = new byte[buf.remaining()];
+		buf.duplicate().get(ret);
+		return ret;
+	}
+
+	private static Path object(Path dir, byte[] content) throws IOException {
+		try (Stream<Path> s = Files.list(dir.resolve("objects"))) {
+			Path[] objects = s.toArray(Path[]::new);
+			for (Path p : objects) {
+				if (Arrays.equals(Files.readAllBytes(p), content)) return p;
+			}
+		}
+		throw new AssertionError("No object of given content");
+	}
+
+	/**
+	 * @return amount of files, temp files of unfinished writes included
+	 */
+	private static long count(Path dir) throws IOException {
+		try (Stream<Path> s = Files.list(dir)) {
+			return s.count();
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package com.gt22.boxer.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void bucketsIncludeUpperBound() {
+		Metrics.Histogram h = new Metrics.Histogram(new long[]{10, 20, 30});
+		for (long v : new long[]{-5, 10, 11, 20, 30, 31, 1000}) {
+			h.observe(v);
+		}
+		StringBuilder sb = new StringBuilder();
+		h.writePrometheus(sb, "h", "", 1);
+		assertEquals("h_bucket{le=\"10.0\"} 2\n" +
+			"h_bucket{le=\"20.0\"} 4\n" +
+			"h_bucket{le=\"30.0\"} 5\n" +
+			"h_bucket{le=\"+Inf\"} 7\n" +
+			"h_sum 1097.0\n" +
+			"h_count 7\n", sb.toString());
+	}
+
+	@Test
+	public void labelsAndUnitsInPrometheusOutput() {
+		Metrics.Histogram h = new Metrics.Histogram(new long[]{1_000_000});
+		h.observe(500_000);
+		StringBuilder sb = new StringBuilder();
+		h.writePrometheus(sb, "d", "stage=\"x\",", 1e9);
+		assertEquals("d_bucket{stage=\"x\",le=\"0.001\"} 1\n" +
+			"d_bucket{stage=\"x\",le=\"+Inf\"} 1\n" +
+			"d_sum{stage=\"x\"} 5.0E-4\n" +
+			"d_count{stage=\"x\"} 1\n", sb.toString());
+	}
+
+	@Test
+	public void quantilesInterpolateWithinBucketAndStayBelowMax() {
+		Metrics.Histogram h = new Metrics.Histogram(new long[]{10, 20, 30});
+		assertEquals(0, h.quantile(0.5), 0);
+		for (int i = 0; i < 4; i++) {
+			h.observe(18);
+		}
+		assertEquals(4, h.getCount());
+		assertEquals(15, h.quantile(0.5), 1e-9);
+		assertEquals(18, h.quantile(1), 1e-9);
+		h.observe(100);
+		//Overflow bucket spans from last bound up to max
+		assertEquals(100, h.quantile(1), 1e-9);
+		Map<String, Object> summary = h.summary(1);
+		assertEquals(5L, summary.get("count"));
+		assertEquals(172 / 5.0, (Double) summary.get("mean"), 1e-9);
+		assertEquals(100.0, summary.get("max"));
+	}
+
+	@Test
+	public void sourcesAreExported() throws IOException {
+		Metrics.gauge("test_gauge", "Test gauge", () -> 1.5);
+		Metrics.counter("test_things_total", "Test counter", () -> 7);
+		StringWriter out = new StringWriter();
+		Metrics.writePrometheus(out);
+		String text = out.toString();
+		assertTrue(text.contains("# HELP boxer_test_gauge Test gauge\n# TYPE boxer_test_gauge gauge\nboxer_test_gauge 1.5\n"));
+		assertTrue(text.contains("# TYPE boxer_test_things_total counter\nboxer_test_things_total 7.0\n"));
+		assertTrue(text.contains("boxer_stage_duration_seconds_count{stage=\"decode\"} "));
+		@SuppressWarnings("unchecked")
+		Map<String, Object> values = (Map<String, Object>) Metrics.snapshot().get("values");
+		assertEquals(1.5, values.get("test_gauge"));
+		assertEquals(7.0, values.get("test_things_total"));
+	}
+
+	@Test
+	public void dumpReplacesFileWithoutLeavingTemp() throws IOException {
+		Path file = tmp.getRoot().toPath().resolve("metrics.json");
+		Files.write(file, "old".getBytes(StandardCharsets.UTF_8));
+		Metrics.dump(file);
+		String json = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+		assertTrue(json.startsWith("{") && json.contains("\"stages\""));
+		assertEquals(1, tmp.getRoot().list().length);
+	}
+}
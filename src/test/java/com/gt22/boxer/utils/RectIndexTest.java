@@ -0,0 +1,78 @@
+package com.gt22.boxer.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares index queries with scans over all rects
+ */
+public class RectIndexTest {
+	@Test
+	public void empty() {
+		RectIndex index = new RectIndex(new int[0]);
+		assertEquals(-1, index.at(0, 0));
+		assertArrayEquals(new int[0], index.overlapping(0, 0, 100, 100));
+	}
+
+	@Test
+	public void overlappingMatchesScan() {
+		Random rand = new Random(1);
+		for (int count : new int[]{1, 10, 100, 1000}) {
+			int[] rects = RectUtilsTest.random(rand, count, 2000, 200);
+			RectIndex index = new RectIndex(rects);
+			for (int q = 0; q < 500; q++) {
+				int x = rand.nextInt(2400) - 200, y = rand.nextInt(2400) - 200, w = rand.nextInt(300), h = rand.nextInt(300);
+				assertArrayEquals("query " + x + ", " + y + ", " + w + "x" + h + " over " + count + " rects", overlapping(rects, x, y, w, h), index.overlapping(x, y, w, h));
+			}
+			for (int i = 0; i < count; i++) {
+				int o = i * 4;
+				assertArrayEquals(overlapping(rects, rects[o], rects[o + 1], rects[o + 2], rects[o + 3]), index.overlapping(i));
+			}
+		}
+	}
+
+	@Test
+	public void atMatchesScan() {
+		Random rand = new Random(2);
+		for (int count : new int[]{1, 10, 100, 1000}) {
+			int[] rects = RectUtilsTest.random(rand, count, 2000, 200);
+			//Duplicates check that latest of equal rects wins
+			System.arraycopy(rects, 0, rects, rects.length - 4, 4);
+			RectIndex index = new RectIndex(rects);
+			for (int q = 0; q < 2000; q++) {
+				double x = rand.nextDouble() * 2400 - 200, y = rand.nextDouble() * 2400 - 200;
+				assertEquals("point " + x + ", " + y + " over " + count + " rects", at(rects, x, y), index.at(x, y));
+			}
+		}
+	}
+
+	private static int[] overlapping(int[] rects, int x, int y, int width, int height) {
+		int[] ret = new int[rects.length / 4];
+		int found = 0;
+		for (int i = 0; i < rects.length / 4; i++) {
+			int o = i * 4;
+			if (rects[o] < x + width && x < rects[o] + rects[o + 2] && rects[o + 1] < y + height && y < rects[o + 1] + rects[o + 3]) ret[found++] = i;
+		}
+		return Arrays.copyOf(ret, found);
+	}
+
+	private static int at(int[] rects, double x, double y) {
+		int ret = -1;
+		long retArea = Long.MAX_VALUE;
+		for (int i = 0; i < rects.length / 4; i++) {
+			int o = i * 4;
+			if (x < rects[o] || y < rects[o + 1] || x >= rects[o] + rects[o + 2] || y >= rects[o + 1] + rects[o + 3]) continue;
+			long area = (long) rects[o + 2] * rects[o + 3];
+			if (area <= retArea) {
+				ret = i;
+				retArea = area;
+			}
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,120 @@
+package com.gt22.boxer.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Compares suppression, both with and without {@link RectIndex}, to greedy scan over all kept rects
+ */
+public class RectUtilsTest {
+	private static final double[][] THRESHOLDS = {{0.3, 0.8}, {0.5, 0.5}, {0, 1}, {1, 0}};
+
+	@Test
+	public void containedRectIsSuppressed() {
+		int[] rects = {10, 10, 20, 20, 0, 0, 100, 100, 200, 200, 50, 50};
+		assertArrayEquals(new int[]{0, 0, 100, 100, 200, 200, 50, 50}, RectUtils.suppress(rects, 0.3, 0.8));
+	}
+
+	@Test
+	public void equalRectsKeepFirst() {
+		int[] rects = {0, 0, 10, 10, 2, 0, 10, 10, 50, 0, 5, 20};
+		assertArrayEquals(new int[]{0, 0, 10, 10, 50, 0, 5, 20}, RectUtils.suppress(rects, 0.3, 0.8));
+	}
+
+	@Test
+	public void suppressMatchesScan() {
+		Random rand = new Random(3);
+		for (int count : new int[]{0, 1, 10, 64, 65, 300, 2000}) {
+			for (double[] t : THRESHOLDS) {
+				int[] rects = random(rand, count, 1000, 150);
+				int[] owner = new int[count];
+				int[] kept = group(rects, t[0], t[1], owner);
+				int[] expected = new int[kept.length * 4];
+				for (int k = 0; k < kept.length; k++) {
+					System.arraycopy(rects, kept[k] * 4, expected, k * 4, 4);
+				}
+				String msg = count + " rects, thresholds " + Arrays.toString(t);
+				assertArrayEquals(msg, expected, RectUtils.suppress(rects, t[0], t[1]));
+				assertArrayEquals(msg, merged(rects, kept, owner), RectUtils.merge(rects, t[0], t[1]));
+			}
+		}
+	}
+
+	/**
+	 * @return rects of size up to maxSize within span, every tenth one is copy of previous one
+	 */
+	static int[] random(Random rand, int count, int span, int maxSize) {
+		int[] ret = new int[count * 4];
+		for (int i = 0; i < count; i++) {
+			int o = i * 4;
+			if (i > 0 && i % 10 == 0) {
+				System.arraycopy(ret, o - 4, ret, o, 4);
+				continue;
+			}
+			ret[o] = rand.nextInt(span);
+			ret[o + 1] = rand.nextInt(span);
+			ret[o + 2] = rand.nextInt(maxSize);
+			ret[o + 3] = rand.nextBoolean() ? ret[o + 2] : rand.nextInt(maxSize);
+		}
+		return ret;
+	}
+
+	private static int[] group(int[] rects, double iouThreshold, double containmentThreshold, int[] owner) {
+		List<Integer> order = new ArrayList<>();
+		for (int i = 0; i < rects.length / 4; i++) order.add(i);
+		order.sort((a, b) -> Long.compare(area(rects, b), area(rects, a)));
+		List<Integer> kept = new ArrayList<>();
+		for (int i : order) {
+			owner[i] = i;
+			for (int k : kept) {
+				if (suppresses(rects, k, i, iouThreshold, containmentThreshold)) {
+					owner[i] = k;
+					break;
+				}
+			}
+			if (owner[i] == i) kept.add(i);
+		}
+		return kept.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	private static int[] merged(int[] rects, int[] kept, int[] owner) {
+		int[] ret = new int[kept.length * 4];
+		for (int k = 0; k < kept.length; k++) {
+			double left = 0, top = 0, right = 0, bottom = 0;
+			int n = 0;
+			for (int i = 0; i < owner.length; i++) {
+				if (owner[i] != kept[k]) continue;
+				int o = i * 4;
+				left += rects[o];
+				top += rects[o + 1];
+				right += rects[o] + rects[o + 2];
+				bottom += rects[o + 1] + rects[o + 3];
+				n++;
+			}
+			ret[k * 4] = (int) Math.round(left / n);
+			ret[k * 4 + 1] = (int) Math.round(top / n);
+			ret[k * 4 + 2] = (int) Math.round(right / n) - ret[k * 4];
+			ret[k * 4 + 3] = (int) Math.round(bottom / n) - ret[k * 4 + 1];
+		}
+		return ret;
+	}
+
+	private static boolean suppresses(int[] rects, int kept, int i, double iouThreshold, double containmentThreshold) {
+		int ko = kept * 4, o = i * 4;
+		long w = Math.min(rects[o] + rects[o + 2], rects[ko] + rects[ko + 2]) - Math.max(rects[o], rects[ko]);
+		long h = Math.min(rects[o + 1] + rects[o + 3], rects[ko + 1] + rects[ko + 3]) - Math.max(rects[o + 1], rects[ko + 1]);
+		if (w <= 0 || h <= 0) return false;
+		long inter = w * h, a = area(rects, i), b = area(rects, kept);
+		return inter > iouThreshold * (a + b - inter) || inter > containmentThreshold * Math.min(a, b);
+	}
+
+	private static long area(int[] rects, int i) {
+		return (long) rects[i * 4 + 2] * rects[i * 4 + 3];
+	}
+}